@@ -10,8 +10,6 @@
 
 package com.pwn9.PwnFilter;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import com.pwn9.PwnFilter.util.LogManager;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -19,6 +17,9 @@ import org.bukkit.permissions.Permission;
 import org.bukkit.plugin.Plugin;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
 /**
@@ -42,13 +43,16 @@ public class DataCache {
 
     private static DataCache _instance = null;
 
-    // Permissions we are interested in caching
-    protected Set<String> permSet = new HashSet<String>();
+    // Permissions we are interested in caching.  Each one gets an index, so a
+    // player's permissions can be kept as a BitSet.
+    private static final ConcurrentMap<String, Integer> permIndex = new ConcurrentHashMap<String, Integer>();
+    private static final List<String> permNames = new CopyOnWriteArrayList<String>();
 
     //private
     private final Plugin plugin;
     private int taskId;
-    private Multimap<Player, String> playerPermissions = HashMultimap.create();
+    // Replaced (never changed) on update, so async threads can read it safely.
+    private final ConcurrentMap<Player, BitSet> playerPermissions = new ConcurrentHashMap<Player, BitSet>();
     private List<Player> queuedPlayerList = new ArrayList<Player>();
     private Set<Player> onlinePlayers = new HashSet<Player>();
 
@@ -78,12 +82,38 @@ public class DataCache {
         return onlinePlayers.toArray(new Player[onlinePlayers.size()]);
     }
 
+    /**
+     * Get the index of a permission, and start caching it if it isn't already.
+     *
+     * @param permission The permission name
+     * @return The index, for {@link #hasPermission(Player, int)}
+     */
+    public static int permissionIndex(String permission) {
+        Integer index = permIndex.get(permission);
+        if (index != null) return index;
+        synchronized (permNames) {
+            index = permIndex.get(permission);
+            if (index == null) {
+                index = permNames.size();
+                permNames.add(permission);
+                permIndex.put(permission, index);
+            }
+            return index;
+        }
+    }
+
+    public boolean hasPermission(Player p, int permission) {
+        BitSet perms = playerPermissions.get(p);
+        return perms != null && perms.get(permission);
+    }
+
     public boolean hasPermission(Player p, String s) {
-        return playerPermissions.get(p).contains(s);
+        Integer index = permIndex.get(s);
+        return index != null && hasPermission(p, index);
     }
 
     public boolean hasPermission(Player p, Permission perm) {
-        return playerPermissions.get(p).contains(perm.getName());
+        return hasPermission(p, perm.getName());
     }
 
     public void start() {
@@ -130,10 +160,12 @@ public class DataCache {
             l.finest("Player ID: " + p.getUniqueId() + " Name: " + p.getName() + " World: " + p.getWorld().getName());
             StringBuilder s = new StringBuilder();
             sb.append("PermissionsSet : ");
-            Collection<String> perms = playerPermissions.get(p);
-            for (String perm : perms) {
-                s.append(perm);
-                s.append(" ");
+            BitSet perms = playerPermissions.get(p);
+            if (perms != null) {
+                for (int i = perms.nextSetBit(0); i >= 0; i = perms.nextSetBit(i + 1)) {
+                    s.append(permNames.get(i));
+                    s.append(" ");
+                }
             }
             l.finest(s.toString());
         }
@@ -150,7 +182,7 @@ public class DataCache {
 
     public synchronized void removePlayer(Player p) {
         onlinePlayers.remove(p);
-        playerPermissions.get(p).clear();
+        playerPermissions.remove(p);
     }
 
     private synchronized void updateCache() {
@@ -174,7 +206,7 @@ public class DataCache {
                 Player p = it.next();
                 if (!p.isOnline()) {
                     LogManager.logger.warning("Removing cached, but offline player: " + p.getName());
-                    playerPermissions.get(p).clear();
+                    playerPermissions.remove(p);
                     it.remove();
                 }
             }
@@ -188,18 +220,20 @@ public class DataCache {
         }
     }
 
-    public synchronized void addPermission(String permission) {
-        permSet.add(permission);
+    public void addPermission(String permission) {
+        permissionIndex(permission);
     }
 
-    public synchronized void addPermissions(List<Permission> permissions) {
+    public void addPermissions(List<Permission> permissions) {
         for (Permission p : permissions ) {
-            permSet.add(p.getName());
+            permissionIndex(p.getName());
         }
     }
 
-    public synchronized void addPermissions(Set<String> permissions) {
-        permSet.addAll(permissions);
+    public void addPermissions(Set<String> permissions) {
+        for (String p : permissions) {
+            permissionIndex(p);
+        }
     }
 
     // NOTE: This is not synchronized, but it is private, so that only the
@@ -207,11 +241,15 @@ public class DataCache {
 
     private void cachePlayerPermissions(Player p) {
 
-        for (String perm : permSet) {
+        BitSet perms = new BitSet(permNames.size());
+        int i = 0;
+        for (String perm : permNames) {
             if (p.hasPermission(perm)) {
-                playerPermissions.put(p, perm);
+                perms.set(i);
             }
+            i++;
         }
+        playerPermissions.put(p, perms);
 
     }
 
@@ -12,13 +12,21 @@ package com.pwn9.PwnFilter;
 
 import com.pwn9.PwnFilter.api.FilterClient;
 import com.pwn9.PwnFilter.rules.Rule;
+import com.pwn9.PwnFilter.rules.Verdict;
 import com.pwn9.PwnFilter.util.ColoredString;
+import com.pwn9.PwnFilter.util.LimitedRegexCharSequence;
+import com.pwn9.PwnFilter.util.LogEvent;
+import com.pwn9.PwnFilter.util.NormalizedText;
+import com.pwn9.PwnFilter.util.regex.CaseFolding;
+import com.pwn9.PwnFilter.util.regex.MatchCursor;
+import com.pwn9.PwnFilter.util.regex.MatchSpans;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -49,12 +57,25 @@ public class FilterState {
     public final String playerName,playerWorldName;
     public final FilterClient listener;
     final int messageLen; // New message can't be longer than original.
-    private List<String> logMessages = new ArrayList<String>(); // Rules can add strings to this array.  They will be output to log if log=true
+    private List<LogEvent> logMessages; // Rules can add messages to this array.  They will be output to log if log=true
+    private List<LogEvent.LazyMatch> untested; // Rules stopped by a condition before their regex was run
     public boolean log = false;  // If true, actions will be logged
     public boolean stop = false; // If set true by a rule, will stop further processing.
     public boolean cancel = false; // If set true, will cancel this event.
     public Rule rule; // Rule we currently match
     public Pattern pattern; // Pattern that we currently matched.
+    private LimitedRegexCharSequence regexGuard; // Reused by every rule in this event.
+    private NormalizedText normalizedMessage; // Normalized view of normalizedFrom
+    private ColoredString normalizedFrom;
+    private String foldedMessage; // Plain text of foldedFrom, with ASCII case folded
+    private ColoredString foldedFrom;
+    private String upperCaseOriginal;
+    private MatchSpans matchSpans; // Matches of matchSpansRule in matchSpansFrom
+    private ColoredString matchSpansFrom;
+    private Rule matchSpansRule;
+    private ColoredString matchedMessage; // Message the current rule matched
+    private String[] matchGroups; // Capture groups of the current rule, in matchedMessage
+    public Verdict verdict; // If set, rules record what they do here, so it can be cached.
 
     // NOTE: pattern should always match originalMessage, but may not match
     // the new message, if another rule has modified it.
@@ -68,7 +89,7 @@ public class FilterState {
      */
     public FilterState(Plugin pl, String m, Player p, FilterClient l) {
         originalMessage = new ColoredString(m);
-        modifiedMessage = new ColoredString(m);
+        modifiedMessage = originalMessage; // Immutable, so no need to copy it.
         messageLen = originalMessage.length();
         player = p;
         if (p != null) {
@@ -96,7 +117,7 @@ public class FilterState {
      */
     public FilterState(Plugin pl, String m, String pName, World w, FilterClient l) {
         originalMessage = new ColoredString(m);
-        modifiedMessage = new ColoredString(m);
+        modifiedMessage = originalMessage; // Immutable, so no need to copy it.
         messageLen = originalMessage.length();
         playerName = pName;
         playerWorldName = (w == null)?"":w.getName();
@@ -112,23 +133,198 @@ public class FilterState {
      * @param message A string containing the log message to be output.
      */
     public void addLogMessage (String message) {
-        logMessages.add(message);
+        addLogMessage(LogEvent.text(message));
     }
 
-    public List<String> getLogMessages() {
+    /**
+     * Add a log message which will only be formatted if it is written out.
+     * @param event The log message.
+     */
+    public void addLogMessage(LogEvent event) {
+        if (logMessages == null) logMessages = new ArrayList<LogEvent>();
+        logMessages.add(event);
+    }
+
+    /**
+     * @return The log messages so far.  Messages added after this is called
+     * may not show up in the returned list.
+     */
+    public List<LogEvent> getLogEvents() {
+        if (logMessages == null) return Collections.emptyList();
         return logMessages;
     }
+
+    /**
+     * @return The log messages so far, as text.
+     */
+    public List<String> getLogMessages() {
+        if (logMessages == null) return Collections.emptyList();
+        List<String> messages = new ArrayList<String>(logMessages.size());
+        for (LogEvent event : logMessages) {
+            if (event.isLogged()) messages.add(event.toString());
+        }
+        return messages;
+    }
+
+    /**
+     * Note a rule which was stopped by one of its conditions before its regex
+     * was run.  If the regex would have matched, the rule would have logged
+     * the match, so the messages it adds depend on this.
+     *
+     * @param match The rule, and the message it would have been tested on.
+     */
+    public void addUntested(LogEvent.LazyMatch match) {
+        if (untested == null) untested = new ArrayList<LogEvent.LazyMatch>();
+        untested.add(match);
+    }
+
+    /**
+     * @return The rules stopped before their regex was run, see
+     * {@link #addUntested(LogEvent.LazyMatch)}.
+     */
+    public List<LogEvent.LazyMatch> getUntested() {
+        if (untested == null) return Collections.emptyList();
+        return untested;
+    }
     /**
      * @return true if the modified message is different than the original.
      */
     public boolean messageChanged() {
-        return !originalMessage.toString().equals(modifiedMessage.toString());
+        return modifiedMessage != originalMessage &&
+                !originalMessage.toString().equals(modifiedMessage.toString());
     }
 
     public boolean playerHasPermission(String perm) {
         return player != null && DataCache.getInstance().hasPermission(player, perm);
     }
 
+    /**
+     * @param perm A permission index, from {@link DataCache#permissionIndex(String)}
+     */
+    public boolean playerHasPermission(int perm) {
+        return player != null && DataCache.getInstance().hasPermission(player, perm);
+    }
+
+    /**
+     * Get the timeout wrapper for a regex match.  The same one is reused for
+     * every rule this event is run through, so don't hold on to it.
+     *
+     * @param text The text to match against
+     * @param timeoutMillis How long the match may take
+     * @return text, wrapped in a freshly reset LimitedRegexCharSequence.
+     */
+    public LimitedRegexCharSequence guardRegexText(CharSequence text, int timeoutMillis) {
+        if (regexGuard == null) {
+            regexGuard = new LimitedRegexCharSequence(text, timeoutMillis);
+            return regexGuard;
+        }
+        return regexGuard.reset(text, timeoutMillis);
+    }
+
+    /**
+     * Get the normalized view of the modified message.  It is only worked out
+     * once, and again if a rule changes the message.
+     *
+     * @return The normalized message.
+     */
+    public NormalizedText getNormalizedText() {
+        if (normalizedFrom != modifiedMessage) {
+            normalizedMessage = NormalizedText.of(modifiedMessage.getPlainString());
+            normalizedFrom = modifiedMessage;
+        }
+        return normalizedMessage;
+    }
+
+    /**
+     * Get the plain text of the modified message, with ASCII letters
+     * lower-cased, for rules compiled with
+     * {@link com.pwn9.PwnFilter.util.Patterns#compileFoldedPattern(String)}.
+     * It is only worked out once, and again if a rule changes the message.
+     *
+     * @return The folded message.
+     */
+    public String getFoldedMessage() {
+        if (foldedFrom != modifiedMessage) {
+            foldedMessage = CaseFolding.foldText(modifiedMessage.getPlainString());
+            foldedFrom = modifiedMessage;
+        }
+        return foldedMessage;
+    }
+
+    /**
+     * Start recording the matches of the current rule in the modified
+     * message, so that actions can use them instead of matching again.
+     *
+     * @return An empty list to add the matches to, as positions in the
+     * modified message.
+     */
+    public MatchSpans recordMatchSpans() {
+        if (matchSpans == null) matchSpans = new MatchSpans();
+        matchSpans.clear();
+        matchSpansFrom = modifiedMessage;
+        matchSpansRule = rule;
+        return matchSpans;
+    }
+
+    /**
+     * Forget the recorded matches (eg: if they couldn't all be found).
+     */
+    public void discardMatchSpans() {
+        matchSpansFrom = null;
+        matchSpansRule = null;
+    }
+
+    /**
+     * Get the matches of the current rule in the modified message.  If they
+     * were recorded when the rule was tested, and no action has changed the
+     * message since, the recorded matches are used.  Otherwise, the rule's
+     * pattern is run against the message again.
+     *
+     * @return A cursor over the matches.
+     */
+    public MatchCursor findMatches() {
+        if (matchSpansFrom == modifiedMessage && matchSpansRule == rule && rule != null) {
+            return matchSpans.cursor();
+        }
+        return rule.getMatchEngine().matcher(modifiedMessage.getPlainString());
+    }
+
+    /**
+     * Remember the message the current rule matched, for getMatchGroups().
+     */
+    public void setMatchedMessage(ColoredString message) {
+        matchedMessage = message;
+        matchGroups = null;
+    }
+
+    /**
+     * Get the text of the current rule's first match, and its capture groups.
+     * These are only worked out when first asked for, so rules that don't use
+     * them don't pay for them.
+     *
+     * @return group 0 (the whole match), then each capture group (null if it
+     * wasn't part of the match).  Empty if they couldn't be found (eg: the
+     * regex timed out), or null if no rule has matched.
+     */
+    public String[] getMatchGroups() {
+        if (matchGroups == null && rule != null && matchedMessage != null) {
+            matchGroups = rule.matchGroups(this, matchedMessage);
+            // Don't try again for every $n.
+            if (matchGroups == null) matchGroups = new String[0];
+        }
+        return matchGroups;
+    }
+
+    /**
+     * @return The plain text of the original message, in upper case.
+     */
+    public String getUpperCaseOriginal() {
+        if (upperCaseOriginal == null) {
+            upperCaseOriginal = originalMessage.getPlainString().toUpperCase();
+        }
+        return upperCaseOriginal;
+    }
+
     public Player getPlayer() {
         return player;
     }
@@ -145,15 +341,16 @@ public class FilterState {
         return listener.getShortName();
     }
     /**
+     * ColoredString is immutable, so this is not a copy.
      *
-     * @return a new Instance of ColouredString with a copy of the originalMessage.
+     * @return The original message.
      */
     public ColoredString getOriginalMessage() {
-        return new ColoredString(originalMessage);
+        return originalMessage;
     }
 
     public ColoredString getModifiedMessage() {
-        return new ColoredString(modifiedMessage);
+        return modifiedMessage;
     }
 
     public void setModifiedMessage(ColoredString newMessage) {
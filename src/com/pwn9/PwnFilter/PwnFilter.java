@@ -15,13 +15,19 @@ import com.pwn9.PwnFilter.api.ClientManager;
 import com.pwn9.PwnFilter.command.pfcls;
 import com.pwn9.PwnFilter.command.pfdumpcache;
 import com.pwn9.PwnFilter.command.pfmute;
+import com.pwn9.PwnFilter.command.pfprofile;
 import com.pwn9.PwnFilter.command.pfreload;
 import com.pwn9.PwnFilter.listener.*;
+import com.pwn9.PwnFilter.rules.Rule;
+import com.pwn9.PwnFilter.rules.RuleChain;
 import com.pwn9.PwnFilter.rules.RuleManager;
+import com.pwn9.PwnFilter.rules.RuleStats;
 import com.pwn9.PwnFilter.util.FileUtil;
+import com.pwn9.PwnFilter.util.LogFloodControl;
 import com.pwn9.PwnFilter.util.LogManager;
 import com.pwn9.PwnFilter.util.PointManager;
 import net.milkbowl.vault.economy.Economy;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.HandlerList;
 import org.bukkit.plugin.RegisteredServiceProvider;
@@ -119,11 +125,20 @@ public class PwnFilter extends JavaPlugin {
         // Enable the listeners
         clientManager.enableClients();
 
+        // Write out log flood summaries, even if the flood has stopped.
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, new Runnable() {
+            @Override
+            public void run() {
+                LogFloodControl.flush();
+            }
+        }, 20, 20);
+
         // Set up Command Handlers
         getCommand("pfreload").setExecutor(new pfreload(this));
         getCommand("pfcls").setExecutor(new pfcls(this));
         getCommand("pfmute").setExecutor(new pfmute(this));
         getCommand("pfdumpcache").setExecutor(new pfdumpcache());
+        getCommand("pfprofile").setExecutor(new pfprofile());
 
     }
 
@@ -136,12 +151,19 @@ public class PwnFilter extends JavaPlugin {
         // Shutdown the DataCache
         DataCache.getInstance().stop();
 
+        RuleChain.setParallelThreshold(0); // Stop the detection threads
+
         LogManager.getInstance().stop();
 
     }
 
     public void configurePlugin() {
 
+        LogManager.setLogFileOptions(getConfig().getInt("logbuffer", 8192),
+                getConfig().getString("logwhenfull", "drop"),
+                getConfig().getInt("logmaxsize", 10),
+                getConfig().getBoolean("logdaily", true),
+                getConfig().getBoolean("logcompress", true));
         if (getConfig().getBoolean("logfile")) {
             LogManager.getInstance().start();
         } else { // Needed during configuration reload to turn off logging if the option changes
@@ -171,6 +193,19 @@ public class PwnFilter extends JavaPlugin {
 
         decolor = getConfig().getBoolean("decolor");
 
+        RuleChain.setDfaCompile(getConfig().getBoolean("dfacompile", true));
+        RuleChain.setAdaptiveOrder(getConfig().getBoolean("adaptiveorder", true));
+        RuleChain.setVerdictCacheSize(getConfig().getInt("verdictcache", 1000));
+        RuleChain.setParallelThreshold(getConfig().getInt("parallelthreshold", 0));
+        Rule.setRegexLimits(getConfig().getInt("regextimeout", 100),
+                getConfig().getInt("regexmaxtimeouts", 3),
+                getConfig().getInt("regexcooldown", 300));
+        RuleStats.setSampleRate(getConfig().getInt("profilesample", 10));
+        LogFloodControl.configure(getConfig().getInt("logfloodwindow", 10),
+                getConfig().getInt("logfloodrule", 20),
+                getConfig().getInt("logfloodplayer", 10),
+                getConfig().getInt("logfloodsample", 100));
+
         // Other modules will pull their data directly from the configuration. (Eg: PointManager)
 
     }
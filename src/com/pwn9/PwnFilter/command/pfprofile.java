@@ -0,0 +1,135 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.command;
+
+import com.pwn9.PwnFilter.rules.*;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import java.util.*;
+
+/**
+ * Show the most expensive rules, and rules which have never matched.
+ * Usage: /pfprofile [chain] [top N]
+ */
+public class pfprofile implements CommandExecutor {
+
+    private static final int DEFAULT_TOP = 10;
+    private static final int MAX_PATTERN_LENGTH = 40;
+
+    public pfprofile() {
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!RuleStats.isEnabled()) {
+            sender.sendMessage(ChatColor.RED + "Rule profiling is disabled (profilesample: 0 in config.yml)");
+            return true;
+        }
+
+        String chainName = null;
+        int top = DEFAULT_TOP;
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase("top")) continue;
+            try {
+                top = Math.max(1, Integer.parseInt(arg));
+            } catch (NumberFormatException ex) {
+                chainName = arg;
+            }
+        }
+
+        Map<String, RuleChain> chains = RuleManager.getInstance().getRuleChains();
+        if (chainName != null) {
+            RuleChain chain = chains.get(chainName);
+            if (chain == null) chain = chains.get(chainName + ".txt");
+            if (chain == null) {
+                sender.sendMessage(ChatColor.RED + "No such rule chain: " + chainName +
+                        ".  Loaded chains: " + chains.keySet());
+                return true;
+            }
+            chains = Collections.singletonMap(chain.getConfigName(), chain);
+        }
+
+        for (RuleChain chain : chains.values()) {
+            showChain(sender, chain, top);
+        }
+        return true;
+    }
+
+    private void showChain(CommandSender sender, RuleChain chain, int top) {
+        List<Rule> rules = new ArrayList<Rule>();
+        collectRules(chain, rules);
+
+        long chainNanos = 0, evaluations = 0;
+        List<Rule> neverMatched = new ArrayList<Rule>();
+        for (Rule rule : rules) {
+            RuleStats stats = rule.getStats();
+            chainNanos += stats.getTotalNanos();
+            evaluations += stats.getEvaluations();
+            if (stats.getMatches() == 0 && stats.getConditionRejections() == 0) neverMatched.add(rule);
+        }
+
+        Collections.sort(rules, new Comparator<Rule>() {
+            @Override
+            public int compare(Rule a, Rule b) {
+                long ta = a.getStats().getTotalNanos(), tb = b.getStats().getTotalNanos();
+                return (ta < tb) ? 1 : ((ta == tb) ? 0 : -1);
+            }
+        });
+
+        sender.sendMessage(ChatColor.GOLD + chain.getConfigName() + ": " + rules.size() + " rules, " +
+                evaluations + " evaluations, " + millis(chainNanos) + "ms");
+
+        for (Rule rule : rules.subList(0, Math.min(top, rules.size()))) {
+            RuleStats stats = rule.getStats();
+            if (stats.getEvaluations() == 0) break;
+            double percent = (chainNanos == 0) ? 0 : 100.0 * stats.getTotalNanos() / chainNanos;
+            sender.sendMessage(String.format("%s%5.1f%% %sms (max %sms) evals %d matches %d rejected %d timeouts %d: %s%s",
+                    ChatColor.YELLOW, percent, millis(stats.getTotalNanos()), millis(stats.getMaxNanos()),
+                    stats.getEvaluations(), stats.getMatches(), stats.getConditionRejections(),
+                    stats.getTimeouts(), ChatColor.WHITE, describe(rule)));
+        }
+
+        if (!neverMatched.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < Math.min(top, neverMatched.size()); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(describe(neverMatched.get(i)));
+            }
+            if (neverMatched.size() > top) sb.append(", ...");
+            sender.sendMessage(ChatColor.GRAY + "Never matched (" + neverMatched.size() + "): " + sb);
+        }
+    }
+
+    private static void collectRules(RuleChain chain, List<Rule> rules) {
+        for (ChainEntry entry : chain.getChain()) {
+            if (entry instanceof Rule) {
+                rules.add((Rule) entry);
+            } else if (entry instanceof RuleChain) {
+                collectRules((RuleChain) entry, rules);
+            }
+        }
+    }
+
+    private static String describe(Rule rule) {
+        if (!rule.getId().isEmpty()) return rule.getId();
+        String pattern = rule.toString();
+        if (pattern.length() > MAX_PATTERN_LENGTH) pattern = pattern.substring(0, MAX_PATTERN_LENGTH) + "...";
+        return pattern;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+}
@@ -14,8 +14,10 @@ package com.pwn9.PwnFilter.listener;
 import com.pwn9.PwnFilter.DataCache;
 import com.pwn9.PwnFilter.FilterState;
 import com.pwn9.PwnFilter.PwnFilter;
+import com.pwn9.PwnFilter.rules.RuleChain;
 import com.pwn9.PwnFilter.rules.RuleManager;
 import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.LruCache;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.entity.Player;
@@ -28,15 +30,43 @@ import org.bukkit.plugin.EventExecutor;
 import org.bukkit.plugin.PluginManager;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 /**
  * Listen for Book Change events and apply the filter to the text.
+ * <p/>
+ * Players usually change one page of a book at a time, so the pages of each
+ * player's book that came through the filter clean (no rule matched them) are
+ * remembered, and aren't filtered again when the book is next saved.  The
+ * pages that did change are filtered on several threads.  If that takes
+ * longer than bookdeadline milliseconds, the edit is cancelled rather than
+ * holding up the server, and the player is asked to try again.  The pages
+ * which are still being filtered carry on, and are remembered, so the next
+ * try waits for them (or uses what they found) instead of filtering them
+ * again and running their actions (warn, fine, ...) a second time.
  */
 
 public class PwnFilterBookListener extends BaseListener {
 
+    // What happened to the pages of each player + book slot last time.
+    private LruCache<String, BookPages> bookPages;
+    private ExecutorService pagePool; // null to filter pages on the main thread
+    private long deadlineNanos; // 0 for no limit
+
     public PwnFilterBookListener(PwnFilter p) {
         super(p);
     }
@@ -74,20 +104,57 @@ public class PwnFilterBookListener extends BaseListener {
 
         // Process Book Text
         if (bookMeta.hasPages()) {
-            List<String> newPages = new ArrayList<String>();
+            List<String> newPages = new ArrayList<String>(bookMeta.getPages());
+            String key = player.getName() + ':' + event.getSlot();
+            LruCache<String, BookPages> cache = bookPages;
+            BookPages last = (cache == null) ? null : cache.get(key);
+            BookPages now = new BookPages();
+
+            List<Future<PageResult>> results = new ArrayList<Future<PageResult>>(newPages.size());
+            for (String page : newPages) {
+                Future<PageResult> result = null;
+                if (last != null && last.clean.contains(page)) {
+                    now.clean.add(page);
+                } else if ((result = now.results.get(page)) == null) {
+                    // A page still being filtered (or filtered after it was
+                    // given up on) from the last save has had its actions run.
+                    if (last != null) result = last.results.get(page);
+                    if (result == null) result = filterPage(ruleChain, new FilterState(plugin, page, player, this));
+                    now.results.put(page, result);
+                }
+                results.add(result);
+            }
+
+            // Without the cache, pages finished late would be filtered (and
+            // their actions run) again on the retry, so wait for them all.
+            long limit = (cache == null) ? 0 : deadlineNanos;
+            if (!waitFor(results, limit)) {
+                // Pages still being filtered stay in now.results.
+                if (cache != null) cache.put(key, now);
+                event.setCancelled(true);
+                player.sendMessage("Your book is still being checked, please try again in a moment.");
+                LogManager.logger.warning("Took longer than bookdeadline to filter a book for " +
+                        player.getName() + ". The edit was cancelled.");
+                return;
+            }
+
             boolean modified = false;
-            for (String page : bookMeta.getPages()) {
-                FilterState state = new FilterState(plugin, page, player, this);
-                ruleChain.execute(state);
-                if (state.isCancelled()) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null) continue;
+                PageResult result = getResult(results.get(i));
+                if (result.clean) now.clean.add(newPages.get(i));
+                if (result.cancel) {
                     event.setCancelled(true);
                 }
-                if (state.messageChanged()) {
-                    page = state.getModifiedMessage().getColoredString();
+                if (result.page != null) {
+                    newPages.set(i, result.page);
                     modified = true;
                 }
-                newPages.add(page);
             }
+            // Pages that matched are filtered again next time, as usual.
+            now.results.clear();
+            if (cache != null) cache.put(key, now);
+
             if (modified)  {
                 bookMeta.setPages(newPages);
                 event.setNewBookMeta(bookMeta);
@@ -96,6 +163,92 @@ public class PwnFilterBookListener extends BaseListener {
 
     }
 
+    /**
+     * Start filtering a page, on the page pool if there is one.
+     *
+     * @param chain The rule chain to apply
+     * @param state A FilterState for the page
+     * @return The result, when it's done.
+     */
+    private Future<PageResult> filterPage(final RuleChain chain, final FilterState state) {
+        Callable<PageResult> task = new Callable<PageResult>() {
+            @Override
+            public PageResult call() {
+                chain.execute(state);
+                return new PageResult(state);
+            }
+        };
+        ExecutorService pool = pagePool;
+        if (pool != null) return pool.submit(task);
+        FutureTask<PageResult> result = new FutureTask<PageResult>(task);
+        result.run();
+        return result;
+    }
+
+    /**
+     * @param results The pages being filtered (null for clean ones)
+     * @param limit   Nanoseconds to wait for them, 0 for no limit
+     * @return false if the pages weren't all done by the deadline.
+     */
+    private static boolean waitFor(List<Future<PageResult>> results, long limit) {
+        long deadline = System.nanoTime() + limit;
+        try {
+            for (Future<PageResult> result : results) {
+                if (result == null) continue;
+                if (limit == 0) {
+                    result.get();
+                } else {
+                    result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            }
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+        return true;
+    }
+
+    // Only called once the result is done.
+    private static PageResult getResult(Future<PageResult> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /*
+     * What happened to each page of a book, the last time it was saved.
+     * Only used on the main thread.
+     */
+    private static final class BookPages {
+        // Pages that no rule matched.
+        final Set<String> clean = new HashSet<String>();
+        // Pages that weren't clean last time, and are being filtered, or
+        // have been.  Only kept if the save ran out of time, so that the
+        // retry waits for them instead of running their actions (warn,
+        // fine, ...) again.
+        final Map<String, Future<PageResult>> results = new HashMap<String, Future<PageResult>>();
+    }
+
+    private static final class PageResult {
+        final boolean clean; // Nothing matched, so nothing will happen if it's filtered again
+        final boolean cancel;
+        final String page; // The page as the rules left it, or null if unchanged
+
+        PageResult(FilterState state) {
+            clean = state.rule == null && !state.cancel && !state.messageChanged();
+            cancel = state.isCancelled();
+            page = state.messageChanged() ? state.getModifiedMessage().getColoredString() : null;
+        }
+    }
+
 
     /**
      * Activate this listener.  This method can be called either by the owning plugin
@@ -114,6 +267,11 @@ public class PwnFilterBookListener extends BaseListener {
 
         setRuleChain(RuleManager.getInstance().getRuleChain("book.txt"));
 
+        // The rules may have changed, so forget which pages were clean.
+        int cacheSize = config.getInt("bookcache", 200);
+        bookPages = (cacheSize > 0) ? new LruCache<String, BookPages>(cacheSize) : null;
+        deadlineNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getInt("bookdeadline", 50)));
+
         PluginManager pm = Bukkit.getPluginManager();
         EventPriority priority = EventPriority.valueOf(config.getString("bookpriority", "LOWEST").toUpperCase());
 
@@ -124,11 +282,32 @@ public class PwnFilterBookListener extends BaseListener {
                         public void execute(Listener l, Event e) { onBookEdit((PlayerEditBookEvent) e); }
                     },
                     plugin);
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (threads > 1) {
+                pagePool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "PwnFilter book filter");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
             setActive();
             LogManager.logger.info("Activated BookListener with Priority Setting: " + priority.toString()
                     + " Rule Count: " + getRuleChain().ruleCount() );
 
         }
     }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (pagePool != null) {
+            pagePool.shutdown();
+            pagePool = null;
+        }
+        bookPages = null;
+    }
 }
 
@@ -120,7 +120,8 @@ public class PwnFilterInvListener extends BaseListener {
                     plugin);
             setActive();
             LogManager.logger.info("Activated ItemListener with Priority Setting: " + priority.toString()
-                    + " Rule Count: " + getRuleChain().ruleCount() );
+                    + " Rule Count: " + getRuleChain().ruleCount()
+                    + " Cached: " + (getRuleChain().isCachingVerdicts() ? "yes" : "no"));
 
         }
     }
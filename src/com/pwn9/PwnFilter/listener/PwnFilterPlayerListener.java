@@ -14,6 +14,7 @@ import com.pwn9.PwnFilter.DataCache;
 import com.pwn9.PwnFilter.FilterState;
 import com.pwn9.PwnFilter.PwnFilter;
 import com.pwn9.PwnFilter.rules.RuleManager;
+import com.pwn9.PwnFilter.util.LogEvent;
 import com.pwn9.PwnFilter.util.LogManager;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.Configuration;
@@ -76,7 +77,8 @@ public class PwnFilterPlayerListener extends BaseListener {
         }
 
         // Take the message from the ChatEvent and send it through the filter.
-        LogManager.getInstance().debugHigh("Applying '" + ruleChain.getConfigName() + "' to message: " + state.getModifiedMessage());
+        LogManager.getInstance().debugHigh(LogEvent.debug("Applying '", ruleChain.getConfigName(),
+                "' to message: ", state.getModifiedMessage()));
         ruleChain.execute(state);
 
         // Only update the message if it has been changed.
@@ -140,7 +140,8 @@ public class PwnFilterSignListener extends BaseListener {
                     plugin);
 
             LogManager.logger.info("Activated SignListener with Priority Setting: " + priority.toString()
-                    + " Rule Count: " + getRuleChain().ruleCount());
+                    + " Rule Count: " + getRuleChain().ruleCount()
+                    + " Cached: " + (getRuleChain().isCachingVerdicts() ? "yes" : "no"));
 
             setActive();
         }
@@ -0,0 +1,135 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.util.AhoCorasick;
+import com.pwn9.PwnFilter.util.regex.MultiRegexDfa;
+import com.pwn9.PwnFilter.util.regex.RequiredLiterals;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Prefilter for a RuleChain.
+ * <p/>
+ * Most rules can only match if the message contains one of a few literal
+ * strings (eg: "fuck" for "f+u+c+k+(ing)?").  We put all of those literals
+ * into one Aho-Corasick automaton, and scan each message once to find out
+ * which rules could possibly match.  Rules we can't extract a literal from
+ * (and nested chains) are always evaluated.
+ * <p/>
+ * If enabled, rules which don't need backtracking (no backreferences,
+ * lookaround, etc.) are also compiled together into one DFA.  That tells us
+ * exactly which of them match, in one pass over the message.  The literal
+ * index is then only used for the remaining rules, or if the DFA can't handle
+ * a particular message.
+ * <p/>
+ * The chain is still applied in its original order, so results are identical
+ * to testing every rule.
+ */
+class ChainPrefilter {
+
+    private final AhoCorasick literals;
+    private final MultiRegexDfa dfa;       // null if not used
+    private final BitSet dfaEntries;       // Entries that the DFA decides
+    private final BitSet alwaysEvaluate;   // Entries with no literal, not in the DFA
+    private final BitSet dfaFallback;      // DFA entries with no literal
+    private final int indexed;
+
+    private ChainPrefilter(AhoCorasick literals, MultiRegexDfa dfa, BitSet dfaEntries,
+                           BitSet alwaysEvaluate, BitSet dfaFallback, int indexed) {
+        this.literals = literals;
+        this.dfa = dfa;
+        this.dfaEntries = dfaEntries;
+        this.alwaysEvaluate = alwaysEvaluate;
+        this.dfaFallback = dfaFallback;
+        this.indexed = indexed;
+    }
+
+    /**
+     * Build a prefilter for the entries in a chain.  The chain must not be
+     * modified after this is built.
+     *
+     * @param chain  The chain entries
+     * @param useDfa Compile backtracking-free rules into a DFA.
+     */
+    static ChainPrefilter build(List<ChainEntry> chain, boolean useDfa) {
+        AhoCorasick.Builder builder = new AhoCorasick.Builder();
+        MultiRegexDfa.Builder dfaBuilder = new MultiRegexDfa.Builder();
+        BitSet dfaEntries = new BitSet(chain.size());
+        BitSet alwaysEvaluate = new BitSet(chain.size());
+        BitSet dfaFallback = new BitSet(chain.size());
+        int indexed = 0;
+
+        for (int i = 0; i < chain.size(); i++) {
+            ChainEntry entry = chain.get(i);
+            Set<String> required = null;
+            boolean inDfa = false;
+            // Word lists and normalized rules aren't indexed.
+            if (entry instanceof Rule && ((Rule) entry).getPattern() != null && !((Rule) entry).isNormalized()) {
+                Pattern p = ((Rule) entry).getPattern();
+                required = RequiredLiterals.of(p.pattern(), p.flags());
+                // The chain is scanned on the folded message.
+                inDfa = useDfa && ((Rule) entry).isCaseFolded() && dfaBuilder.add(p.pattern(), p.flags(), i);
+            }
+            if (inDfa) dfaEntries.set(i);
+            if (required == null) {
+                if (inDfa) dfaFallback.set(i);
+                else alwaysEvaluate.set(i);
+            } else {
+                for (String literal : required) {
+                    builder.add(literal, i);
+                }
+            }
+            if (inDfa || required != null) indexed++;
+        }
+
+        MultiRegexDfa dfa = dfaBuilder.isEmpty() ? null : dfaBuilder.build();
+        return new ChainPrefilter(builder.build(), dfa, dfaEntries, alwaysEvaluate, dfaFallback, indexed);
+    }
+
+    /**
+     * @param text The folded plain text of the message (see FilterState.getFoldedMessage())
+     * @return The indexes of the chain entries which could match this text.
+     */
+    BitSet candidates(String text) {
+        BitSet result = new BitSet();
+        literals.scan(text, result);
+        if (dfa != null) {
+            BitSet exact = new BitSet();
+            if (dfa.scan(text, exact)) {
+                // The DFA knows exactly; ignore literal hits for its rules.
+                result.andNot(dfaEntries);
+                result.or(exact);
+            } else {
+                result.or(dfaFallback);
+            }
+        }
+        result.or(alwaysEvaluate);
+        return result;
+    }
+
+    /**
+     * @return How many rules are covered by the literal index or the DFA.
+     */
+    int indexedCount() {
+        return indexed;
+    }
+
+    /**
+     * @return How many rules are decided by the DFA.
+     */
+    int dfaCount() {
+        return (dfa == null) ? 0 : dfa.size();
+    }
+}
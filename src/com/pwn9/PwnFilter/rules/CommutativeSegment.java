@@ -0,0 +1,136 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.FilterState;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A run of consecutive rules in a chain, none of which change the message.
+ * <p/>
+ * Every rule in the segment sees the same text, and conditions only look at
+ * the event, so we can test the rules in any order we like.  We test the
+ * rules that stop the chain (abort) first, picking the ones that have stopped
+ * it most often for the least time, according to their RuleStats.  Once one
+ * of them is known to stop the chain, none of the rules after it need to be
+ * tested at all.
+ * <p/>
+ * The rules that matched are then applied in their original order, so the
+ * outcome (and the order of actions) is exactly the same as applying every
+ * rule in turn.
+ */
+class CommutativeSegment {
+
+    // How often to re-rank the stopping rules.
+    private static final int RERANK_INTERVAL = 1024;
+
+    final int start, end; // Chain indexes, end is exclusive
+    private final BitSet stoppers;
+    private volatile int[] order; // Stopping rules, best first
+    private final AtomicInteger evaluations = new AtomicInteger();
+
+    private CommutativeSegment(int start, int end, BitSet stoppers) {
+        this.start = start;
+        this.end = end;
+        this.stoppers = stoppers;
+        int[] initial = new int[stoppers.cardinality()];
+        int n = 0;
+        for (int i = stoppers.nextSetBit(0); i >= 0; i = stoppers.nextSetBit(i + 1)) initial[n++] = i;
+        order = initial;
+    }
+
+    /**
+     * Find the segments in a chain that are worth re-ordering: at least two
+     * rules, none of which modify the message, at least one of which stops
+     * the chain.
+     *
+     * @return An array with the segment for each chain entry that is in one,
+     * null for the rest.
+     */
+    static CommutativeSegment[] build(List<ChainEntry> chain) {
+        CommutativeSegment[] result = new CommutativeSegment[chain.size()];
+        int i = 0;
+        while (i < chain.size()) {
+            int start = i;
+            BitSet stoppers = new BitSet();
+            while (i < chain.size() && chain.get(i) instanceof Rule && !((Rule) chain.get(i)).modifiesMessage()) {
+                if (((Rule) chain.get(i)).stopsChain()) stoppers.set(i);
+                i++;
+            }
+            if (i - start >= 2 && !stoppers.isEmpty()) {
+                CommutativeSegment segment = new CommutativeSegment(start, i, stoppers);
+                Arrays.fill(result, start, i, segment);
+            }
+            if (i == start) i++;
+        }
+        return result;
+    }
+
+    /**
+     * Work out which rules in this segment have to be applied.
+     *
+     * @param chain      The chain entries
+     * @param state      The current event
+     * @param candidates Chain entries which could match
+     * @return The rules in this segment which match the message, and come
+     * before (or are) the first one that will stop the chain.
+     */
+    BitSet select(List<ChainEntry> chain, FilterState state, BitSet candidates) {
+        if ((evaluations.incrementAndGet() & (RERANK_INTERVAL - 1)) == 0) rerank(chain);
+
+        BitSet matched = new BitSet();
+        int bound = end;
+
+        for (int i : order) {
+            if (i >= bound || !candidates.get(i)) continue;
+            Rule rule = (Rule) chain.get(i);
+            if (rule.probe(state)) {
+                matched.set(i);
+                if (rule.conditionsMet(state)) bound = i + 1;
+            }
+        }
+
+        for (int i = candidates.nextSetBit(start); i >= 0 && i < bound; i = candidates.nextSetBit(i + 1)) {
+            if (stoppers.get(i)) continue;
+            if (((Rule) chain.get(i)).probe(state)) matched.set(i);
+        }
+
+        matched.clear(bound, end);
+        return matched;
+    }
+
+    private void rerank(final List<ChainEntry> chain) {
+        if (!RuleStats.isEnabled()) return;
+        final Map<Integer, Double> score = new HashMap<Integer, Double>();
+        List<Integer> ranked = new ArrayList<Integer>();
+        for (int i : order) {
+            RuleStats stats = ((Rule) chain.get(i)).getStats();
+            long evals = stats.getEvaluations();
+            // Chance it stops the chain, for the time it takes to test.
+            double chance = (stats.getMatches() + 1.0) / (evals + 2.0);
+            double cost = (evals == 0) ? 1.0 : Math.max(1.0, (double) stats.getTotalNanos() / evals);
+            score.put(i, chance / cost);
+            ranked.add(i);
+        }
+        Collections.sort(ranked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Double.compare(score.get(b), score.get(a));
+                return (c != 0) ? c : a.compareTo(b);
+            }
+        });
+        int[] newOrder = new int[ranked.size()];
+        for (int i = 0; i < newOrder.length; i++) newOrder[i] = ranked.get(i);
+        order = newOrder;
+    }
+}
@@ -10,7 +10,17 @@
 
 package com.pwn9.PwnFilter.rules;
 
+import com.pwn9.PwnFilter.DataCache;
 import com.pwn9.PwnFilter.FilterState;
+import com.pwn9.PwnFilter.util.AhoCorasick;
+import com.pwn9.PwnFilter.util.LogManager;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Condition {
 
@@ -26,12 +36,31 @@ public class Condition {
     final CondType type;
     final CondFlag flag;
     final String parameters;
+    private final Check check; // Compiled from the parameters, for this type only
 
 
     public Condition(CondType t, CondFlag f, String p) {
         type = t;
         flag = f;
         parameters = p;
+        switch (t) {
+            case user:
+                check = new UserCheck(p.split("\\s"));
+                break;
+            case permission:
+                check = new PermissionCheck(p.split("\\s"));
+                break;
+            case string:
+                check = new StringCheck(upperCase(p.split("\\|")));
+                break;
+            default:
+                check = new CommandCheck(upperCase(p.split("\\|")));
+        }
+    }
+
+    private static String[] upperCase(String[] checks) {
+        for (int i = 0; i < checks.length; i++) checks[i] = checks[i].toUpperCase();
+        return checks;
     }
 
     public static Condition newCondition(String line) {
@@ -71,6 +100,11 @@ public class Condition {
         return new Condition(newType, newFlag, newParameters);
     }
 
+    @Override
+    public String toString() {
+        return flag + " " + type + " " + parameters;
+    }
+
     public static boolean isCondition(String command) {
         try {
             return CondFlag.valueOf(command) != CondFlag.NONE;
@@ -88,29 +122,7 @@ public class Condition {
      * @return true if this condition is met, false otherwise
      */
     public boolean check(FilterState state) {
-        boolean matched = false;
-        switch (type) {
-            case user:
-                for (String check : parameters.split("\\s")) {
-                    if (state.playerName.equalsIgnoreCase(check)) matched = true;
-                }
-            case permission:
-                for (String check: parameters.split("\\s")) {
-                    if (state.playerHasPermission(check)) matched = true;
-                }
-            case string:
-                for (String check: parameters.split("\\|")) {
-                    if (state.getOriginalMessage().getPlainString().toUpperCase().contains(check.toUpperCase())) matched=true;
-                }
-            case command:
-                for (String check: parameters.split("\\|")) {
-                    if (state.getListenerName().equals("COMMAND")) {
-                        String command = state.getOriginalMessage().getPlainString().split("\\s")[0].replaceFirst("^\\/","");
-                        if (command.toUpperCase().matches(check.toUpperCase())) matched = true;
-                    }
-                }
-
-        }
+        boolean matched = check.matches(state);
         switch (flag) {
             case ignore:
                 return !matched;
@@ -123,5 +135,146 @@ public class Condition {
         return false;
     }
 
+    /**
+     * @param length Length of the message
+     * @return Rough cost of checking this condition, in the same units as
+     * {@link Rule#patternCost(int)}.
+     */
+    int cost(int length) {
+        return check.cost(length);
+    }
+
+    /*
+     * The check for each type of condition.  These are built when the rule is
+     * loaded, so checking a message doesn't split, upper-case or compile
+     * anything.
+     */
+
+    private interface Check {
+        boolean matches(FilterState state);
+
+        int cost(int length);
+    }
+
+    // Player name is one of the names (ignoring case)
+    private static final class UserCheck implements Check {
+        private final Set<String> names = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+        UserCheck(String[] names) {
+            Collections.addAll(this.names, names);
+        }
+
+        public boolean matches(FilterState state) {
+            return state.playerName != null && names.contains(state.playerName);
+        }
+
+        public int cost(int length) {
+            return 4;
+        }
+    }
+
+    // Player has any of the permissions
+    private static final class PermissionCheck implements Check {
+        private final int[] permissions;
+
+        PermissionCheck(String[] names) {
+            permissions = new int[names.length];
+            for (int i = 0; i < names.length; i++) permissions[i] = DataCache.permissionIndex(names[i]);
+        }
+
+        public boolean matches(FilterState state) {
+            for (int perm : permissions) {
+                if (state.playerHasPermission(perm)) return true;
+            }
+            return false;
+        }
+
+        public int cost(int length) {
+            return 2 * permissions.length;
+        }
+    }
+
+    // Message contains any of the strings (ignoring case)
+    private static final class StringCheck implements Check {
+        private final AhoCorasick strings;
+        private final boolean always; // An empty string is in every message
+
+        StringCheck(String[] checks) {
+            AhoCorasick.Builder builder = new AhoCorasick.Builder();
+            boolean empty = false;
+            for (String check : checks) {
+                if (check.isEmpty()) {
+                    empty = true;
+                } else {
+                    builder.add(check, 0);
+                }
+            }
+            strings = builder.build();
+            always = empty;
+        }
+
+        public boolean matches(FilterState state) {
+            return always || strings.containsAny(state.getUpperCaseOriginal());
+        }
+
+        public int cost(int length) {
+            // One pass, however many strings (plus upper-casing the message once)
+            return always ? 1 : 2 * length;
+        }
+    }
+
+    // A command (without the /) matching any of the regexes
+    private static final class CommandCheck implements Check {
+        private final Pattern[] patterns;
+        // Matchers are reset for each message, instead of making new ones.
+        private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+            @Override
+            protected Matcher[] initialValue() {
+                Matcher[] m = new Matcher[patterns.length];
+                for (int i = 0; i < m.length; i++) m[i] = patterns[i].matcher("");
+                return m;
+            }
+        };
+
+        CommandCheck(String[] checks) {
+            patterns = new Pattern[checks.length];
+            for (int i = 0; i < checks.length; i++) {
+                try {
+                    patterns[i] = Pattern.compile(checks[i]);
+                } catch (PatternSyntaxException ex) {
+                    LogManager.logger.warning("Invalid command condition: " + checks[i] + " (" +
+                            ex.getDescription() + ").  Matching it as plain text.");
+                    patterns[i] = Pattern.compile(Pattern.quote(checks[i]));
+                }
+            }
+        }
+
+        public boolean matches(FilterState state) {
+            if (!state.getListenerName().equals("COMMAND")) return false;
+
+            // The first word, without the leading /
+            String text = state.getUpperCaseOriginal();
+            int end = 0;
+            while (end < text.length() && !isSpace(text.charAt(end))) end++;
+            int start = (end > 0 && text.charAt(0) == '/') ? 1 : 0;
+
+            for (Matcher m : matchers.get()) {
+                m.reset(text).region(start, end);
+                if (m.matches()) return true;
+            }
+            return false;
+        }
+
+        public int cost(int length) {
+            // Only the first word of commands
+            return 2 + 16 * patterns.length;
+        }
+
+        // Same as \s
+        private static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
+        }
+    }
+
 }
 
@@ -0,0 +1,155 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.FilterState;
+import com.pwn9.PwnFilter.util.LogManager;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Finds out which rules match a long message on several threads at once.
+ * <p/>
+ * Applying a chain is done one rule at a time, since each rule sees the
+ * message as the rules before it left it.  But most rules don't match, and
+ * finding that out doesn't change anything.  So for a big enough job (a long
+ * message, like a book, and a lot of rules that might match it), the
+ * candidate rules are split up and matched against the current text on a
+ * ForkJoinPool first.  Rules that don't match are dropped from the
+ * candidates, and the chain is then applied as usual, so only the rules that
+ * matched are tested again (along with their conditions and actions), in
+ * order.  If a rule changes the message, the rest of the chain is detected
+ * again against the new text.
+ * <p/>
+ * Applying a rule that doesn't match does nothing, so the outcome is exactly
+ * the same as applying every candidate in turn.
+ */
+final class ParallelDetector {
+
+    // Fewest rules to match on one thread.
+    private static final int MIN_SPLIT = 8;
+
+    // Message length x candidate rules to detect in parallel, 0 for never.
+    private static volatile int threshold = 0;
+    private static ForkJoinPool pool; // Guarded by the class lock
+
+    private ParallelDetector() {
+    }
+
+    /**
+     * @param minWork Message length times the number of rules that might
+     *                match, at which to start detecting in parallel.  0 to
+     *                turn parallel detection off.
+     */
+    static synchronized void setThreshold(int minWork) {
+        threshold = Math.max(0, minWork);
+        if (threshold > 0 && pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        } else if (threshold == 0 && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * If it's worth it, remove the rules which don't match the current
+     * message from the candidates.
+     *
+     * @param chain      The chain entries
+     * @param state      The current event
+     * @param candidates Chain entries which could match.  Updated.
+     * @param from       First chain entry still to be applied
+     */
+    static void refine(List<ChainEntry> chain, FilterState state, BitSet candidates, int from) {
+        int minWork = threshold;
+        if (minWork == 0) return;
+        // Rules that aren't matched are logged at debug high.
+        if (LogManager.debugMode.compareTo(LogManager.DebugModes.high) >= 0) return;
+
+        String plain = state.getModifiedMessage().getPlainString();
+        int count = 0;
+        boolean normalize = false;
+        for (int i = candidates.nextSetBit(from); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            ChainEntry entry = chain.get(i);
+            if (entry instanceof Rule) {
+                count++;
+                normalize |= ((Rule) entry).isNormalized();
+            }
+        }
+        if (count < 2 * MIN_SPLIT || (long) count * plain.length() < minWork) return;
+
+        ForkJoinPool fjp = getPool();
+        if (fjp == null || fjp.getParallelism() < 2) return;
+
+        int[] rules = new int[count];
+        int n = 0;
+        for (int i = candidates.nextSetBit(from); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (chain.get(i) instanceof Rule) rules[n++] = i;
+        }
+
+        // Worked out here, since the FilterState is only used on this thread.
+        String folded = state.getFoldedMessage();
+        String normalized = normalize ? state.getNormalizedText().toString() : null;
+        boolean[] misses = new boolean[rules.length];
+        try {
+            fjp.invoke(new Detect(chain, rules, misses, 0, rules.length, plain, folded, normalized));
+        } catch (RejectedExecutionException ex) {
+            return; // Turned off while we were getting ready.  Just test them all.
+        }
+
+        for (int k = 0; k < rules.length; k++) {
+            if (misses[k]) candidates.clear(rules[k]);
+        }
+    }
+
+    private static final class Detect extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<ChainEntry> chain;
+        private final int[] rules;
+        private final boolean[] misses;
+        private final int lo, hi;
+        private final String plain, folded, normalized;
+
+        Detect(List<ChainEntry> chain, int[] rules, boolean[] misses, int lo, int hi,
+               String plain, String folded, String normalized) {
+            this.chain = chain;
+            this.rules = rules;
+            this.misses = misses;
+            this.lo = lo;
+            this.hi = hi;
+            this.plain = plain;
+            this.folded = folded;
+            this.normalized = normalized;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > MIN_SPLIT) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Detect(chain, rules, misses, lo, mid, plain, folded, normalized),
+                        new Detect(chain, rules, misses, mid, hi, plain, folded, normalized));
+                return;
+            }
+            for (int k = lo; k < hi; k++) {
+                Rule rule = (Rule) chain.get(rules[k]);
+                misses[k] = rule.detect(plain, folded, normalized) == RuleStats.Outcome.NO_MATCH;
+            }
+        }
+    }
+}
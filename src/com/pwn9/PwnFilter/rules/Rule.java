@@ -12,13 +12,35 @@ package com.pwn9.PwnFilter.rules;
 
 import com.pwn9.PwnFilter.FilterState;
 import com.pwn9.PwnFilter.rules.action.Action;
+import com.pwn9.PwnFilter.rules.action.Actionabort;
+import com.pwn9.PwnFilter.rules.action.Actionrandrep;
+import com.pwn9.PwnFilter.rules.action.ModifyingAction;
+import com.pwn9.PwnFilter.util.ColoredString;
 import com.pwn9.PwnFilter.util.LimitedRegexCharSequence;
+import com.pwn9.PwnFilter.util.LogEvent;
 import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.NormalizedText;
 import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.RegexTimeoutException;
+import com.pwn9.PwnFilter.util.regex.CaseFolding;
+import com.pwn9.PwnFilter.util.regex.FoldedMatchEngine;
+import com.pwn9.PwnFilter.util.regex.JavaMatchEngine;
+import com.pwn9.PwnFilter.util.regex.LinearMatchEngine;
+import com.pwn9.PwnFilter.util.regex.MatchCursor;
+import com.pwn9.PwnFilter.util.regex.MatchEngine;
+import com.pwn9.PwnFilter.util.regex.MatchSpans;
+import com.pwn9.PwnFilter.util.regex.NormalizingMatchEngine;
+import com.pwn9.PwnFilter.util.regex.WordTrie;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Rule object
@@ -27,22 +49,54 @@ import java.util.regex.Pattern;
  * TODO: Finish docs
  */
 public class Rule implements ChainEntry {
+
+    /**
+     * Regex engines a rule can use.
+     * java: java.util.regex.  Supports everything, but is run with a timeout.
+     * re2: Linear-time automaton.  No backreferences / lookaround, no timeout needed.
+     */
+    public enum Engine {
+        java, re2
+    }
+
+    // Message length that costs are compared at, when choosing guards.
+    private static final int TYPICAL_LENGTH = 40;
+
+    // Regex timeout, and circuit breaker settings.  See setRegexLimits()
+    private static int regexTimeout = 100;
+    private static int maxTimeouts = 3;
+    private static long quarantineMillis = 300000;
+
     private Pattern pattern;
+    private Engine engine = Engine.java;
+    private MatchEngine matchEngine; // Matches the text from matchText()
+    private MatchEngine plainEngine; // matchEngine, for any text (eg: actions)
+    private MatchEngine normalizedEngine; // matchEngine, with matches mapped back from the normalized text
+    private boolean normalize = false; // Set to true, to match the normalized message.
     private String description = "";
     private String id = "";
     private boolean modifyRaw = false; // Set to true, to modify "raw" message.
 
     List<Condition> conditions = new ArrayList<Condition>();
+    // Conditions cheaper than the regex, cheapest first.  null until worked out.
+    private volatile Condition[] guards;
     List<Action> actions = new ArrayList<Action>();
     public List<String> includeEvents = new ArrayList<String>();
     public List<String> excludeEvents = new ArrayList<String>();
 
+    // Circuit breaker state
+    private final AtomicInteger timeouts = new AtomicInteger();
+    private final AtomicLong timeoutWindowStart = new AtomicLong();
+    private final AtomicLong quarantinedUntil = new AtomicLong();
+
+    private final RuleStats stats = new RuleStats();
+
         /* Constructors */
 
     public Rule() {}
 
     public Rule(String matchStr) {
-        this.pattern = Patterns.compilePattern(matchStr);
+        setPattern(matchStr);
     }
 
     public Rule(String id, String description) {
@@ -50,10 +104,154 @@ public class Rule implements ChainEntry {
         this.description = description;
     }
 
+    /**
+     * @return The regex for this rule, or null if it matches a word list.
+     */
     public Pattern getPattern() {
         return pattern;
     }
 
+    /**
+     * @return The engine that this rule's pattern is actually matched with.
+     * For a rule that matches the normalized message, the matches are
+     * positions in the original message.
+     */
+    public MatchEngine getMatchEngine() {
+        return normalize ? normalizedEngine : plainEngine;
+    }
+
+    private void setMatchEngine(MatchEngine engine) {
+        matchEngine = engine;
+        if (engine == null) {
+            plainEngine = normalizedEngine = null;
+            return;
+        }
+        plainEngine = isCaseFolded() ? new FoldedMatchEngine(engine) : engine;
+        normalizedEngine = new NormalizingMatchEngine(engine);
+    }
+
+    /**
+     * @return true if the pattern was compiled case-folded, and has to be
+     * matched against FilterState.getFoldedMessage().
+     */
+    public boolean isCaseFolded() {
+        return pattern != null && (pattern.flags() & Pattern.CASE_INSENSITIVE) == 0;
+    }
+
+    public boolean isNormalized() {
+        return normalize;
+    }
+
+    /**
+     * Match this rule against the normalized view of the message (see
+     * {@link com.pwn9.PwnFilter.util.NormalizedText}) instead of the message itself.
+     */
+    public void setNormalize(boolean normalize) {
+        this.normalize = normalize;
+        guards = null;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Select the regex engine for this rule.  If the pattern can't be run by
+     * the requested engine, the java engine is used instead.
+     *
+     * @param engine The engine to use.
+     * @return false if the pattern can't be run by the requested engine.
+     */
+    public boolean setEngine(Engine engine) {
+        this.engine = engine;
+        return buildMatchEngine();
+    }
+
+    private boolean buildMatchEngine() {
+        guards = null;
+        // Word lists have no pattern, and are always linear.
+        if (pattern == null) return true;
+        if (engine == Engine.re2) {
+            try {
+                setMatchEngine(LinearMatchEngine.compile(pattern.pattern(), pattern.flags()));
+                return true;
+            } catch (PatternSyntaxException ex) {
+                LogManager.getInstance().debugMedium("Can't use re2 engine for: " + pattern.pattern() +
+                        " (" + ex.getDescription() + ")");
+            }
+        }
+        setMatchEngine(new JavaMatchEngine(pattern));
+        return engine == Engine.java;
+    }
+
+    /**
+     * Configure the regex timeout and circuit breaker.  If a rule times out
+     * maxTimeouts times within the cooldown period, it is quarantined (skipped)
+     * until the cooldown period has passed.
+     *
+     * @param timeoutMillis How long a java.util.regex match may run.
+     * @param maxTimeouts Timeouts before a rule is quarantined.  0 to disable.
+     * @param cooldownSeconds How long a rule stays quarantined.
+     */
+    public static void setRegexLimits(int timeoutMillis, int maxTimeouts, int cooldownSeconds) {
+        Rule.regexTimeout = Math.max(1, timeoutMillis);
+        Rule.maxTimeouts = Math.max(0, maxTimeouts);
+        Rule.quarantineMillis = Math.max(0, cooldownSeconds) * 1000L;
+    }
+
+    /**
+     * @return true if this rule is currently skipped, because its regex keeps timing out.
+     */
+    public boolean isQuarantined() {
+        long until = quarantinedUntil.get();
+        if (until == 0) return false;
+        if (System.currentTimeMillis() < until) return true;
+        if (quarantinedUntil.compareAndSet(until, 0)) {
+            LogManager.logger.info("Regex rule re-enabled after quarantine: " + describe());
+        }
+        return false;
+    }
+
+    private void recordTimeout(Plugin plugin) {
+        if (maxTimeouts == 0) return;
+        long now = System.currentTimeMillis();
+        long windowStart = timeoutWindowStart.get();
+        if (now - windowStart > quarantineMillis && timeoutWindowStart.compareAndSet(windowStart, now)) {
+            timeouts.set(0);
+        }
+        if (timeouts.incrementAndGet() < maxTimeouts) return;
+        timeouts.set(0);
+        if (!quarantinedUntil.compareAndSet(0, now + quarantineMillis)) return;
+
+        final String message = "Regex rule quarantined for " + (quarantineMillis / 1000) + "s after " +
+                maxTimeouts + " timeouts: " + describe();
+        LogManager.logger.severe(message);
+        if (plugin == null) return;
+        // Let anyone who can reload the rules know about it.  Permissions
+        // have to be checked on the main thread.
+        Bukkit.getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                for (Player p : Bukkit.getOnlinePlayers()) {
+                    if (p.hasPermission("pwnfilter.reload")) {
+                        p.sendMessage("[PwnFilter] " + message);
+                    }
+                }
+            }
+        });
+    }
+
+    private String describe() {
+        return (id.isEmpty() ? "" : "(" + id + ") ") + matchEngine.pattern();
+    }
+
+    /**
+     * @return Runtime counters for this rule, since it was loaded.
+     */
+    public RuleStats getStats() {
+        return stats;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -63,7 +261,20 @@ public class Rule implements ChainEntry {
     }
 
     public void setPattern(String pattern) {
-        this.pattern = Patterns.compilePattern(pattern);
+        this.pattern = Patterns.compileFoldedPattern(pattern);
+        if (this.pattern == null) setMatchEngine(null);
+        buildMatchEngine();
+    }
+
+    /**
+     * Match the words in a list, instead of a regex.
+     *
+     * @param words The word list to match.
+     */
+    public void setWordList(WordTrie words) {
+        pattern = null;
+        setMatchEngine(words);
+        guards = null;
     }
 
     public void setDescription(String description) {
@@ -95,64 +306,486 @@ public class Rule implements ChainEntry {
      */
     public void apply(FilterState state) {
 
+        if (!RuleStats.isEnabled()) {
+            evaluate(state);
+            return;
+        }
+
+        if (RuleStats.sample()) {
+            long start = System.nanoTime();
+            RuleStats.Outcome outcome = evaluate(state);
+            stats.record(outcome, System.nanoTime() - start);
+        } else {
+            stats.record(evaluate(state), -1);
+        }
+    }
+
+    private RuleStats.Outcome evaluate(FilterState state) {
+
         // Check if action matches the current state of the message
 
         if (LogManager.debugMode.compareTo(LogManager.DebugModes.high) >= 0) {
-            LogManager.logger.info("Testing Pattern: '" + pattern.toString() + "' on string: '" + state.getModifiedMessage().getPlainString()+"'");
+            LogManager.logger.info("Testing Pattern: '" + matchEngine.pattern() + "' on string: '" + state.getModifiedMessage().getPlainString()+"'");
         }
 
-            LimitedRegexCharSequence limitedRegexCharSequence = new LimitedRegexCharSequence(state.getModifiedMessage().getPlainString(),100);
-            final Matcher matcher = pattern.matcher(limitedRegexCharSequence);
-        // If we don't match, return immediately with the original message
+        // Skip this rule if it has been timing out.
+        if (isQuarantined()) {
+            if (state.verdict != null) state.verdict.spoil();
+            return RuleStats.Outcome.SKIPPED;
+        }
+
+        Condition guard = failedGuard(state);
+        if (guard != null) {
+            logUntested(state, state.getModifiedMessage(), guard);
+            if (state.verdict != null) state.verdict.untested(this, state.getModifiedMessage(), guard);
+            return RuleStats.Outcome.REJECTED;
+        }
+
+        CharSequence text = matchText(state);
+        final MatchCursor matcher;
+        // If we don't match, return immediately with the original message.
+        // Most messages don't, so check without building a cursor first.
         try {
-            if (!matcher.find()) return;
-        } catch (RuntimeException ex) {
-            LogManager.logger.severe("Regex match timed out! Regex: " + pattern.toString());
-            LogManager.logger.severe("Failed string was: " + limitedRegexCharSequence);
-            return;
+            if (!matchEngine.find(text)) return RuleStats.Outcome.NO_MATCH;
+            matcher = matchEngine.matcher(text);
+            matcher.find();
+        } catch (RegexTimeoutException ex) {
+            timedOut(state, text);
+            return RuleStats.Outcome.TIMEOUT;
         }
 
         state.pattern = pattern;
         state.rule = this;
+        state.setMatchedMessage(state.getModifiedMessage());
 
         // If Match, log it and then check any conditions.
-        state.addLogMessage("|" + state.listener.getShortName() +  "| MATCH " +
-                (id.isEmpty()?"":"("+id+")") +
-                " <" +
-                state.playerName + "> " + state.getModifiedMessage().getPlainString());
-        LogManager.getInstance().debugLow("Match String: " + matcher.group());
+        logMatch(state);
+        LogManager.getInstance().debugLow(LogEvent.debug("Match String: ", text, matcher.start(), matcher.end()));
 
 
+        // Guards are checked again, so the condition reported is the same one
+        // either way.  They're cheap.
         for (Condition c : conditions) {
             // This checks that EVERY condition is met (conditions are AND)
             if (!c.check(state)) {
-                state.addLogMessage("CONDITION not met <"+ c.flag.toString()+
-                        " " + c.type.toString()+" " + c.parameters + "> " + state.getOriginalMessage());
-                return;
+                logRejected(state, c);
+                if (state.verdict != null) state.verdict.rejected(this, state.getModifiedMessage(), c);
+                return RuleStats.Outcome.REJECTED;
             }
 
         }
 
+        // Actions which change the message can reuse the matches.
+        if (modifiesMessage()) recordMatches(state, matcher);
+
         // If we get this far, execute the actions
-        for (Action a : actions) {
+        if (state.verdict == null) {
+            for (Action a : actions) {
+                a.execute(state);
+            }
+        } else {
+            ColoredString[] messages = new ColoredString[actions.size()];
+            LogEvent[][] logMessages = new LogEvent[actions.size()][];
+            for (int i = 0; i < messages.length; i++) {
+                Action a = actions.get(i);
+                messages[i] = state.getModifiedMessage();
+                int logged = state.getLogEvents().size();
+                a.execute(state);
+                if (a instanceof ModifyingAction) {
+                    List<LogEvent> log = state.getLogEvents();
+                    logMessages[i] = log.subList(logged, log.size()).toArray(new LogEvent[log.size() - logged]);
+                }
+            }
+            state.verdict.matched(this, messages, logMessages);
+        }
+
+        return RuleStats.Outcome.MATCH;
+    }
+
+    /**
+     * Record the rest of the matches in the message, as positions in the
+     * modified message, starting from the one the matcher is on.
+     */
+    private void recordMatches(FilterState state, MatchCursor matcher) {
+        MatchSpans spans = state.recordMatchSpans();
+        NormalizedText normalized = normalize ? state.getNormalizedText() : null;
+        try {
+            do {
+                int start = matcher.start(), end = matcher.end();
+                if (normalized != null) {
+                    int originalStart = normalized.originalStart(start);
+                    end = (end > start) ? normalized.originalEnd(end) : originalStart;
+                    start = originalStart;
+                }
+                spans.add(start, end);
+            } while (matcher.find());
+        } catch (RegexTimeoutException ex) {
+            // The actions will have to find them on their own.
+            state.discardMatchSpans();
+        }
+    }
+
+    /**
+     * Test this rule's pattern against a message, outside of an event.  A
+     * regex which times out doesn't match.
+     *
+     * @param message The message
+     * @return true if the pattern matches it.
+     */
+    public boolean matches(ColoredString message) {
+        String plain = message.getPlainString();
+        CharSequence text = plain;
+        if (normalize) {
+            text = NormalizedText.of(plain).toString();
+        } else if (isCaseFolded()) {
+            text = CaseFolding.foldText(plain);
+        }
+        if (!matchEngine.isLinear()) {
+            text = new LimitedRegexCharSequence(text, regexTimeout);
+        }
+        try {
+            return matchEngine.find(text);
+        } catch (RegexTimeoutException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Find the capture groups of this rule's first match in a message that it
+     * matched.  For use by actions (eg: $1 in a message).
+     *
+     * @param state   The event, for its regex timeout
+     * @param message The message
+     * @return group 0 (the whole match), then each capture group (null if it
+     * wasn't part of the match), or null if there is no match, or it timed out.
+     */
+    public String[] matchGroups(FilterState state, ColoredString message) {
+        String plain = message.getPlainString();
+        NormalizedText normalized = null;
+        String text = plain;
+        if (normalize) {
+            normalized = NormalizedText.of(plain);
+            text = normalized.toString();
+        } else if (isCaseFolded()) {
+            text = CaseFolding.foldText(plain);
+        }
+
+        int[] spans;
+        if (pattern == null) {
+            MatchCursor m = matchEngine.matcher(text);
+            if (!m.find()) return null;
+            spans = new int[]{m.start(), m.end()};
+        } else {
+            // Only java.util.regex has capture groups.  A re2 rule never ran
+            // on it, so this needs the timeout too.
+            CharSequence guarded = new LimitedRegexCharSequence(text, regexTimeout);
+            try {
+                Matcher m = pattern.matcher(guarded);
+                if (!m.find()) return null;
+                spans = new int[(m.groupCount() + 1) * 2];
+                for (int g = 0; g <= m.groupCount(); g++) {
+                    spans[g * 2] = m.start(g);
+                    spans[g * 2 + 1] = m.end(g);
+                }
+            } catch (RegexTimeoutException ex) {
+                timedOut(state, text);
+                return null;
+            }
+        }
+
+        // Groups are taken from the message itself, not the folded or
+        // normalized text.
+        String[] groups = new String[spans.length / 2];
+        for (int g = 0; g < groups.length; g++) {
+            int start = spans[g * 2], end = spans[g * 2 + 1];
+            if (start < 0) continue;
+            if (normalized != null) {
+                int originalStart = normalized.originalStart(start);
+                end = (end > start) ? normalized.originalEnd(end) : originalStart;
+                start = originalStart;
+            }
+            groups[g] = plain.substring(start, end);
+        }
+        return groups;
+    }
+
+    private void logMatch(FilterState state) {
+        state.addLogMessage(LogEvent.match(state.listener.getShortName(), this,
+                state.playerName, state.getModifiedMessage()));
+    }
+
+    private void logRejected(FilterState state, Condition c) {
+        state.addLogMessage(LogEvent.rejected(c, state.getOriginalMessage()));
+    }
+
+    /**
+     * Log what this rule would have, if it matched the message before it was
+     * stopped by a condition.  Its regex is only run if the log is written.
+     */
+    private void logUntested(FilterState state, ColoredString message, Condition c) {
+        List<LogEvent.LazyMatch> match = Collections.singletonList(new LogEvent.LazyMatch(this, message));
+        state.addUntested(match.get(0));
+        state.addLogMessage(LogEvent.onlyIf(LogEvent.match(state.listener.getShortName(), this,
+                state.playerName, message), match));
+        state.addLogMessage(LogEvent.onlyIf(LogEvent.rejected(c, state.getOriginalMessage()), match));
+    }
+
+    /**
+     * Repeat what this rule did in a cached Verdict, for a new event with the
+     * same message.  Actions which only change the message are skipped (the
+     * Verdict already has the final message, and what they logged), the rest
+     * are run again, with the message as it was when they first ran.
+     *
+     * @param state A FilterState object for the new event.
+     * @param step What this rule did the first time.
+     */
+    void replay(FilterState state, Verdict.Step step) {
+        state.setModifiedMessage(step.messages[0]);
+        if (step.untested) {
+            logUntested(state, step.messages[0], step.failed);
+            return;
+        }
+        state.pattern = pattern;
+        state.rule = this;
+        state.setMatchedMessage(step.messages[0]);
+        logMatch(state);
+
+        if (step.failed != null) {
+            logRejected(state, step.failed);
+            return;
+        }
+
+        for (int i = 0; i < step.messages.length; i++) {
+            Action a = actions.get(i);
+            if (a instanceof ModifyingAction) {
+                for (LogEvent e : step.logMessages[i]) state.addLogMessage(e);
+                continue;
+            }
+            state.setModifiedMessage(step.messages[i]);
             a.execute(state);
         }
+    }
+
+    /**
+     * Test whether this rule's pattern matches the current message, without
+     * changing the state.  If it does, apply() must be called to actually
+     * run the rule.  It must also be called if one of the rule's cheap
+     * conditions isn't met, so that the rule logs what it would have.
+     *
+     * @param state A FilterState object for this event.
+     * @return true if the pattern matched, or a condition stopped the rule
+     * before it was tested.
+     */
+    boolean probe(FilterState state) {
+        if (!RuleStats.isEnabled()) return mustApply(test(state));
+
+        boolean sampled = RuleStats.sample();
+        long start = sampled ? System.nanoTime() : 0;
+        RuleStats.Outcome outcome = test(state);
+        // Matches and rejections are recorded when the rule is applied.
+        if (!mustApply(outcome)) {
+            stats.record(outcome, sampled ? System.nanoTime() - start : -1);
+        }
+        return mustApply(outcome);
+    }
+
+    private static boolean mustApply(RuleStats.Outcome outcome) {
+        return outcome == RuleStats.Outcome.MATCH || outcome == RuleStats.Outcome.REJECTED;
+    }
+
+    private RuleStats.Outcome test(FilterState state) {
+        if (isQuarantined()) {
+            if (state.verdict != null) state.verdict.spoil();
+            return RuleStats.Outcome.SKIPPED;
+        }
+
+        if (failedGuard(state) != null) return RuleStats.Outcome.REJECTED;
+
+        CharSequence text = matchText(state);
+        try {
+            return matchEngine.find(text) ? RuleStats.Outcome.MATCH : RuleStats.Outcome.NO_MATCH;
+        } catch (RegexTimeoutException ex) {
+            timedOut(state, text);
+            return RuleStats.Outcome.TIMEOUT;
+        }
+    }
+
+    /**
+     * Test this rule's pattern against text that has already been prepared,
+     * without touching the FilterState, so it can be called from any thread.
+     * Used by {@link ParallelDetector}.  Timeouts aren't recorded: a rule that
+     * times out here is tested again when it is applied.
+     *
+     * @param plain      Plain text of the message
+     * @param folded     The same, with ASCII case folded
+     * @param normalized The normalized message, or null if no rule needs it
+     * @return MATCH, NO_MATCH, or SKIPPED if this rule can't be tested here.
+     */
+    RuleStats.Outcome detect(String plain, String folded, String normalized) {
+        if (isQuarantined() || (normalize && normalized == null)) return RuleStats.Outcome.SKIPPED;
+
+        boolean sampled = RuleStats.isEnabled() && RuleStats.sample();
+        long start = sampled ? System.nanoTime() : 0;
+        CharSequence text = normalize ? normalized : isCaseFolded() ? folded : plain;
+        if (!matchEngine.isLinear()) {
+            text = new LimitedRegexCharSequence(text, regexTimeout);
+        }
+        try {
+            if (matchEngine.find(text)) return RuleStats.Outcome.MATCH;
+        } catch (RegexTimeoutException ex) {
+            return RuleStats.Outcome.SKIPPED;
+        }
+        // Matches are recorded when the rule is applied.
+        if (RuleStats.isEnabled()) stats.record(RuleStats.Outcome.NO_MATCH, sampled ? System.nanoTime() - start : -1);
+        return RuleStats.Outcome.NO_MATCH;
+    }
+
+    /**
+     * Check the conditions which are cheaper than the regex, before running
+     * it.  Conditions only look at the event, not the match, so this gives
+     * the same result as checking them after a match.  The difference is in
+     * the log: a rule which matches but fails a condition logs the MATCH and
+     * the condition.  So a rule stopped here logs them as well, but they are
+     * only written out if the regex matches, and it is only run if they are
+     * going to be written out (see {@link LogEvent#onlyIf}).
+     *
+     * @return The first guard condition that isn't met, or null.
+     */
+    private Condition failedGuard(FilterState state) {
+        if (conditions.isEmpty()) return null;
+        for (Condition c : guards()) {
+            if (!c.check(state)) return c;
+        }
+        return null;
+    }
+
+    private Condition[] guards() {
+        Condition[] result = guards;
+        if (result != null) return result;
+
+        final int regexCost = patternCost(TYPICAL_LENGTH);
+        List<Condition> cheap = new ArrayList<Condition>();
+        for (Condition c : conditions) {
+            if (c.cost(TYPICAL_LENGTH) < regexCost) cheap.add(c);
+        }
+        Collections.sort(cheap, new Comparator<Condition>() {
+            @Override
+            public int compare(Condition a, Condition b) {
+                return a.cost(TYPICAL_LENGTH) - b.cost(TYPICAL_LENGTH);
+            }
+        });
+        result = cheap.toArray(new Condition[cheap.size()]);
+        guards = result;
+        return result;
+    }
+
+    /**
+     * @param length Length of the message
+     * @return Rough cost of matching this rule's pattern against a message.
+     */
+    int patternCost(int length) {
+        int perChar;
+        if (pattern == null) {
+            perChar = 2; // Word list
+        } else if (matchEngine != null && matchEngine.isLinear()) {
+            perChar = 3;
+        } else {
+            // Backtracking gets worse with longer, more complicated patterns.
+            perChar = 4 + pattern.pattern().length() / 8;
+        }
+        if (normalize) perChar += 4;
+        return perChar * length;
+    }
+
+    /**
+     * @return The text this rule's matchEngine should be run against.
+     */
+    private CharSequence matchText(FilterState state) {
+        CharSequence text;
+        if (normalize) {
+            // Normalized text is already lower case.
+            text = state.getNormalizedText().toString();
+        } else if (isCaseFolded()) {
+            text = state.getFoldedMessage();
+        } else {
+            text = state.getModifiedMessage().getPlainString();
+        }
+        // The linear-time engine can't run away, so it doesn't need the timeout.
+        if (!matchEngine.isLinear()) {
+            text = state.guardRegexText(text, regexTimeout);
+        }
+        return text;
+    }
+
+    private void timedOut(FilterState state, CharSequence text) {
+        LogManager.logger.severe("Regex match timed out! Regex: " + pattern.toString());
+        LogManager.logger.severe("Failed string was: " + text);
+        recordTimeout(state.plugin);
+        if (state.verdict != null) state.verdict.spoil();
+    }
 
+    /**
+     * @return true if every condition of this rule is met.  Conditions only
+     * look at the event, so this doesn't depend on what other rules did.
+     */
+    boolean conditionsMet(FilterState state) {
+        for (Condition c : conditions) {
+            if (!c.check(state)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if this rule stops the chain when it matches.
+     */
+    boolean stopsChain() {
+        for (Action a : actions) {
+            if (a instanceof Actionabort) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if this rule can change the text of the message.
+     */
+    boolean modifiesMessage() {
+        for (Action a : actions) {
+            if (a instanceof ModifyingAction) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if this rule does the same thing to a message no matter who
+     * sent it, or when: no user or permission conditions, no random
+     * replacements, and it doesn't touch the raw message.
+     */
+    boolean isPlayerIndependent() {
+        if (modifyRaw) return false;
+        for (Condition c : conditions) {
+            if (c.type == Condition.CondType.user || c.type == Condition.CondType.permission) return false;
+        }
+        for (Action a : actions) {
+            if (a instanceof Actionrandrep) return false;
+        }
+        return true;
     }
 
     public boolean isValid() {
-        // Check that we have a valid pattern and at least one action
-        return this.pattern != null && this.actions != null;
+        // Check that we have a valid pattern (or word list) and at least one action
+        return this.matchEngine != null && this.actions != null;
     }
 
     public String toString() {
-        return pattern.toString();
+        return matchEngine.pattern();
     }
 
     public boolean addCondition(Condition c) {
+        guards = null;
         return c != null && conditions.add(c);
     }
     public boolean addConditions(Collection<Condition> conditionList) {
+        guards = null;
         return conditionList != null && conditions.addAll(conditionList);
     }
 
@@ -16,9 +16,12 @@ import com.pwn9.PwnFilter.DataCache;
 import com.pwn9.PwnFilter.FilterState;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.rules.parser.FileParser;
+import com.pwn9.PwnFilter.util.LogEvent;
 import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.LruCache;
 
 import java.util.*;
+import java.util.logging.Level;
 
 
 /**
@@ -50,9 +53,24 @@ public class RuleChain implements Chain,ChainEntry {
     private List<ChainEntry> chain = new ArrayList<ChainEntry>();
     private Multimap<String, Action> actionGroups = ArrayListMultimap.create();
     private Multimap<String, Condition> conditionGroups = ArrayListMultimap.create();
+    private volatile ChainPrefilter prefilter; // Built once the chain is READY
+    private volatile CommutativeSegment[] segments; // Built with the prefilter, if enabled
+    private volatile LruCache<String, Verdict> verdicts; // Only if no rule depends on the player
 
     private final String configName;
 
+    // Compile backtracking-free rules into a single DFA when loading.
+    private static boolean dfaCompile = true;
+
+    // Test rules that stop the chain first, within runs of rules that don't modify the message.
+    private static boolean adaptiveOrder = true;
+
+    // Remember what the chain did to this many recent messages.  0 to disable.
+    private static int verdictCacheSize = 1000;
+
+    // Longer messages are unlikely to be repeated, so aren't worth caching.
+    private static final int MAX_CACHED_LENGTH = 256;
+
 
     public RuleChain(String configName) {
         this.configName = configName;
@@ -74,6 +92,19 @@ public class RuleChain implements Chain,ChainEntry {
         FileParser parser = new FileParser(configName);
 
         if (parser.parseRules(this)) {
+            prefilter = ChainPrefilter.build(chain, dfaCompile);
+            segments = adaptiveOrder ? CommutativeSegment.build(chain) : null;
+            LogManager.getInstance().debugMedium("Prefilter for " + configName + " indexed " +
+                    prefilter.indexedCount() + " of " + chain.size() + " entries (" +
+                    prefilter.dfaCount() + " in DFA).");
+            if (verdictCacheSize > 0) {
+                if (isPlayerIndependent(chain)) {
+                    verdicts = new LruCache<String, Verdict>(verdictCacheSize);
+                } else {
+                    LogManager.getInstance().debugMedium("Not caching results for " + configName +
+                            ": it has user / permission conditions, randrep or raw rules.");
+                }
+            }
             chainState = ChainState.READY;
             DataCache.getInstance().addPermissions(getPermissionList());
             return true;
@@ -84,6 +115,40 @@ public class RuleChain implements Chain,ChainEntry {
 
     public String getConfigName() { return configName;}
 
+    public static void setDfaCompile(boolean enabled) {
+        dfaCompile = enabled;
+    }
+
+    public static void setAdaptiveOrder(boolean enabled) {
+        adaptiveOrder = enabled;
+    }
+
+    public static void setVerdictCacheSize(int size) {
+        verdictCacheSize = Math.max(0, size);
+    }
+
+    /**
+     * @param minWork Message length times rules that might match, at which to
+     *                find the matching rules on several threads.  0 to disable.
+     *                See {@link ParallelDetector}.
+     */
+    public static void setParallelThreshold(int minWork) {
+        ParallelDetector.setThreshold(minWork);
+    }
+
+    private static boolean isPlayerIndependent(List<ChainEntry> entries) {
+        for (ChainEntry entry : entries) {
+            if (entry instanceof Rule) {
+                if (!((Rule) entry).isPlayerIndependent()) return false;
+            } else if (entry instanceof RuleChain) {
+                if (!isPlayerIndependent(((RuleChain) entry).getChain())) return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public int ruleCount() {
         Integer count = 0;
         for (ChainEntry c : chain) {
@@ -101,6 +166,14 @@ public class RuleChain implements Chain,ChainEntry {
      * actions in sequential order.  If the Rule sets the stop=true of the FilterState,
      * stop processing rules.  If not, continue along the rule chain, checking the
      * (possibly modified) message against subsequent rules.
+     * <p/>
+     * Rules which can't possibly match (they require a literal which isn't in
+     * the message) are skipped.  If a rule modifies the message, the remaining
+     * rules are re-checked against the new text.  Within a run of rules that
+     * don't modify the message, rules that stop the chain are tested first
+     * (see {@link CommutativeSegment}), but rules are still applied in order.
+     * For long messages, the rules that match may be found on several
+     * threads first (see {@link ParallelDetector}).
      *
      * @param state A FilterState object which is used to get information about
      *              this event, and update its status (eg: set cancelled)
@@ -113,49 +186,136 @@ public class RuleChain implements Chain,ChainEntry {
             throw new IllegalStateException("Chain is empty: " + configName);
         }
 
-        for (ChainEntry entry : chain) {
-            entry.apply(state);
+        ChainPrefilter filter = prefilter;
+        if (filter == null) {
+            for (ChainEntry entry : chain) {
+                entry.apply(state);
+                if (state.stop) {
+                    break;
+                }
+            }
+            return;
+        }
+
+        CommutativeSegment[] segs = segments;
+        String text = state.getFoldedMessage();
+        BitSet candidates = filter.candidates(text);
+        // Nothing can match, which is most messages.
+        if (candidates.isEmpty()) return;
+        ParallelDetector.refine(chain, state, candidates, 0);
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Rule lastRule = state.rule;
+            CommutativeSegment segment = (segs == null) ? null : segs[i];
+            if (segment != null) {
+                BitSet matched = segment.select(chain, state, candidates);
+                for (int j = matched.nextSetBit(0); j >= 0 && !state.stop; j = matched.nextSetBit(j + 1)) {
+                    chain.get(j).apply(state);
+                }
+                i = segment.end - 1;
+            } else {
+                chain.get(i).apply(state);
+            }
             if (state.stop) {
                 break;
             }
+            if (state.rule != lastRule) {
+                // Something matched, and may have changed the message.
+                String newText = state.getFoldedMessage();
+                if (!newText.equals(text)) {
+                    text = newText;
+                    candidates = filter.candidates(text);
+                    ParallelDetector.refine(chain, state, candidates, i + 1);
+                }
+            }
         }
     }
 
+    /**
+     * Apply the chain to an event, then log the result.
+     * <p/>
+     * If none of the rules in this chain depend on who sent the message (see
+     * {@link Rule#isPlayerIndependent()}), the result for each message is
+     * cached.  The next time the same message comes from the same listener,
+     * the cached {@link Verdict} is replayed instead of matching every rule.
+     *
+     * @param state A FilterState object for this event.
+     */
     public void execute(FilterState state ) {
 
         LogManager logManager = LogManager.getInstance();
 
-        apply(state);
-
-        if (state.pattern != null) {
-            logManager.debugHigh("Debug last match: " + state.pattern.pattern());
-            logManager.debugHigh("Debug original: " + state.getOriginalMessage().getColoredString());
-            logManager.debugHigh("Debug current: " + state.getModifiedMessage().getColoredString());
-            logManager.debugHigh("Debug log: " + (state.log ? "yes" : "no"));
-            logManager.debugHigh("Debug deny: " + (state.cancel ? "yes" : "no"));
+        LruCache<String, Verdict> cache = verdicts;
+        if (cache == null || state.verdict != null || state.getUnfilteredMessage() != null ||
+                state.getOriginalMessage().length() > MAX_CACHED_LENGTH) {
+            apply(state);
         } else {
-            logManager.debugHigh("[PwnFilter] Debug no match: " + state.getOriginalMessage().getColoredString());
-        }
-
-        if (state.cancel){
-            state.addLogMessage("<"+state.playerName + "> Original message cancelled.");
-        } else if (state.pattern != null) {
-            state.addLogMessage("|" + state.listener.getShortName() + "| SENT <" +
-                    state.playerName + "> " + state.getModifiedMessage().getPlainString());
+            String key = verdictKey(state);
+            Verdict verdict = cache.get(key);
+            if (verdict != null) {
+                verdict.replay(state);
+            } else {
+                verdict = new Verdict();
+                state.verdict = verdict;
+                try {
+                    apply(state);
+                } finally {
+                    state.verdict = null;
+                }
+                if (verdict.isCacheable()) {
+                    verdict.finish(state);
+                    cache.put(key, verdict);
+                }
+            }
         }
 
-        for (String s : state.getLogMessages()) {
-            if (state.log) {
-                LogManager.logger.info(s);
+        // Don't build the debug strings unless they'll be logged.
+        if (LogManager.debugMode.compareTo(LogManager.DebugModes.high) >= 0) {
+            if (state.rule != null) {
+                logManager.debugHigh("Debug last match: " + state.rule);
+                logManager.debugHigh("Debug original: " + state.getOriginalMessage().getColoredString());
+                logManager.debugHigh("Debug current: " + state.getModifiedMessage().getColoredString());
+                logManager.debugHigh("Debug log: " + (state.log ? "yes" : "no"));
+                logManager.debugHigh("Debug deny: " + (state.cancel ? "yes" : "no"));
             } else {
-                LogManager.logger.log(LogManager.getRuleLogLevel(),s);
+                logManager.debugHigh("[PwnFilter] Debug no match: " + state.getOriginalMessage().getColoredString());
             }
         }
+
+        List<LogEvent.LazyMatch> untested = state.getUntested();
+        Rule logRule = state.rule;
+        if (state.cancel){
+            state.addLogMessage(LogEvent.cancelled(state.playerName));
+        } else if (state.rule != null) {
+            state.addLogMessage(LogEvent.sent(state.listener.getShortName(),
+                    state.playerName, state.getModifiedMessage()));
+        } else if (!untested.isEmpty()) {
+            // Only if one of them would have matched.
+            state.addLogMessage(LogEvent.onlyIf(LogEvent.sent(state.listener.getShortName(),
+                    state.playerName, state.getModifiedMessage()), untested));
+        }
+        if (logRule == null && !untested.isEmpty()) logRule = untested.get(untested.size() - 1).getRule();
+
+        // Messages are only formatted if they'll be logged.
+        LogManager.logEvents(state.log ? Level.INFO : LogManager.getRuleLogLevel(), state.getLogEvents(),
+                logRule, state.playerName);
+    }
+
+    private static String verdictKey(FilterState state) {
+        String original = state.getOriginalMessage().getColoredString();
+        String modified = state.getModifiedMessage().getColoredString();
+        StringBuilder sb = new StringBuilder(state.getListenerName()).append('\u0000').append(original);
+        // Listeners may have already changed the message (eg: stripped colours)
+        if (modified != original && !modified.equals(original)) sb.append('\u0000').append(modified);
+        return sb.toString();
     }
 
     public boolean append(ChainEntry r) {
         if (r.isValid()) {
             chain.add(r); // Add the Rule to this chain
+            prefilter = null; // Chain changed, the prefilter no longer applies
+            segments = null;
+            verdicts = null;
             return true;
         } else return false;
     }
@@ -172,6 +332,14 @@ public class RuleChain implements Chain,ChainEntry {
         return chainState == ChainState.READY;
     }
 
+    /**
+     * @return true if this chain remembers what it did to recent messages
+     * (it doesn't depend on the player, and verdictcache isn't 0).
+     */
+    public boolean isCachingVerdicts() {
+        return verdicts != null;
+    }
+
     /**
      * The DataCache object needs to know what permissions to cache.  Whenever this
      * rulechain is updated, the datacache should also be updated with the list of
@@ -201,6 +369,9 @@ public class RuleChain implements Chain,ChainEntry {
      */
     public void resetChain() {
         chain.clear();
+        prefilter = null;
+        segments = null;
+        verdicts = null; // Rules are being reloaded, forget all cached results.
         conditionGroups.clear();
         actionGroups.clear();
         chainState = ChainState.INIT;
@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Manage RuleSets, rulefiles, etc.  All ruleChains that are to be managed by
@@ -128,6 +129,15 @@ public class RuleManager {
         }
     }
 
+    /**
+     * @return A copy of the map of config names to loaded RuleChains.
+     */
+    public Map<String, RuleChain> getRuleChains() {
+        synchronized (ruleChains) {
+            return new TreeMap<String, RuleChain>(ruleChains);
+        }
+    }
+
     /*
      * Force all ruleChains to be refreshed.
      */
@@ -143,8 +153,9 @@ public class RuleManager {
                 rc.resetChain();
             }
 
-            // Reload all the shortcuts
+            // Reload all the shortcuts and word lists
             ShortCutManager.getInstance().reloadFiles();
+            WordListManager.getInstance().reloadFiles();
 
             // Now, reparse the configs
             for (Map.Entry <String, RuleChain> entry : ruleChains.entrySet()) {
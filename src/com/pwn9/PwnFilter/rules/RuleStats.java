@@ -0,0 +1,151 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime counters for a single Rule, shown by /pfprofile.
+ * <p/>
+ * Rules are applied from many threads at once (async chat, the main thread,
+ * etc.) so the counters are striped: each thread adds to its own cell, and
+ * the cells are only summed when the stats are read.  Timing only happens
+ * on a sample of evaluations (one in every sampleRate), and total time is
+ * estimated from that sample.
+ */
+public class RuleStats {
+
+    public enum Outcome {
+        SKIPPED,  // Rule is quarantined, nothing was done.
+        NO_MATCH,
+        MATCH,    // Matched, and the actions were run
+        REJECTED, // Stopped by a condition
+        TIMEOUT
+    }
+
+    // 0 = profiling off, 1 = time every evaluation, n = time 1 in n.
+    private static volatile int sampleRate = 10;
+
+    private static final int STRIPES;
+    private static final int STRIDE = 8; // 8 longs = one 64 byte cache line per stripe
+
+    private static final int EVALUATIONS = 0;
+    private static final int MATCHES = 1;
+    private static final int REJECTIONS = 2;
+    private static final int TIMEOUTS = 3;
+    private static final int SAMPLES = 4;
+    private static final int SAMPLED_NANOS = 5;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16) stripes <<= 1;
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public static void setSampleRate(int rate) {
+        sampleRate = Math.max(0, rate);
+    }
+
+    public static boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    /**
+     * @return true if this evaluation should be timed.
+     */
+    static boolean sample() {
+        int rate = sampleRate;
+        return rate == 1 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) == 0);
+    }
+
+    /**
+     * Record one evaluation of the rule.
+     *
+     * @param outcome What happened
+     * @param nanos   How long it took, or -1 if it wasn't timed.
+     */
+    void record(Outcome outcome, long nanos) {
+        if (outcome == Outcome.SKIPPED) return;
+        int base = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+        cells.incrementAndGet(base + EVALUATIONS);
+        switch (outcome) {
+            case MATCH:
+                cells.incrementAndGet(base + MATCHES);
+                break;
+            case REJECTED:
+                cells.incrementAndGet(base + REJECTIONS);
+                break;
+            case TIMEOUT:
+                cells.incrementAndGet(base + TIMEOUTS);
+                break;
+            default:
+        }
+        if (nanos >= 0) {
+            cells.incrementAndGet(base + SAMPLES);
+            cells.addAndGet(base + SAMPLED_NANOS, nanos);
+            long max;
+            while (nanos > (max = maxNanos.get())) {
+                if (maxNanos.compareAndSet(max, nanos)) break;
+            }
+        }
+    }
+
+    private long sum(int field) {
+        long total = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            total += cells.get(i * STRIDE + field);
+        }
+        return total;
+    }
+
+    public long getEvaluations() {
+        return sum(EVALUATIONS);
+    }
+
+    /**
+     * @return Number of times the rule matched, and its actions were run.
+     */
+    public long getMatches() {
+        return sum(MATCHES);
+    }
+
+    /**
+     * @return Number of times the pattern matched, but a condition wasn't met.
+     */
+    public long getConditionRejections() {
+        return sum(REJECTIONS);
+    }
+
+    public long getTimeouts() {
+        return sum(TIMEOUTS);
+    }
+
+    /**
+     * @return Estimated total time spent in this rule, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        long samples = sum(SAMPLES);
+        if (samples == 0) return 0;
+        return (long) ((double) sum(SAMPLED_NANOS) * getEvaluations() / samples);
+    }
+
+    /**
+     * @return Longest single (sampled) evaluation, in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+}
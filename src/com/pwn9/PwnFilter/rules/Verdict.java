@@ -0,0 +1,94 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.FilterState;
+import com.pwn9.PwnFilter.util.ColoredString;
+import com.pwn9.PwnFilter.util.LogEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A record of what a rule chain did to one message: which rules matched, in
+ * what order, what the message looked like when each of their actions ran,
+ * and what the message ended up as.
+ * <p/>
+ * For a chain whose outcome doesn't depend on the player, the same text
+ * always gives the same Verdict, so it can be cached and replayed for the
+ * next player who says the same thing.  Replaying re-runs the actions that
+ * have effects outside of the FilterState (warn, kick, points, etc.) for the
+ * new player, but skips the regex matching and the message rewriting.
+ */
+public final class Verdict {
+
+    static final class Step {
+        final Rule rule;
+        final ColoredString[] messages; // Message before each action ran
+        final LogEvent[][] logMessages; // Log messages from actions that won't be run again
+        final Condition failed; // Condition that stopped the rule, or null
+        final boolean untested; // Stopped before the regex was run
+
+        Step(Rule rule, ColoredString[] messages, LogEvent[][] logMessages, Condition failed, boolean untested) {
+            this.rule = rule;
+            this.messages = messages;
+            this.logMessages = logMessages;
+            this.failed = failed;
+            this.untested = untested;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<Step>();
+    private boolean cacheable = true;
+    private ColoredString result;
+
+    Verdict() {
+    }
+
+    void rejected(Rule rule, ColoredString message, Condition failed) {
+        steps.add(new Step(rule, new ColoredString[]{message}, null, failed, false));
+    }
+
+    void untested(Rule rule, ColoredString message, Condition failed) {
+        steps.add(new Step(rule, new ColoredString[]{message}, null, failed, true));
+    }
+
+    void matched(Rule rule, ColoredString[] messages, LogEvent[][] logMessages) {
+        steps.add(new Step(rule, messages, logMessages, null, false));
+    }
+
+    /**
+     * Something happened which might not happen the same way next time (eg: a
+     * regex timed out), so this Verdict must not be cached.
+     */
+    void spoil() {
+        cacheable = false;
+    }
+
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    void finish(FilterState state) {
+        result = state.getModifiedMessage();
+    }
+
+    /**
+     * Replay this verdict on a new event with the same message.
+     */
+    void replay(FilterState state) {
+        for (Step step : steps) {
+            step.rule.replay(state, step);
+            if (state.stop) break;
+        }
+        state.setModifiedMessage(new ColoredString(result));
+    }
+}
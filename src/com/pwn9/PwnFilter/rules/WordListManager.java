@@ -0,0 +1,91 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules;
+
+import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.regex.WordTrie;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Load and share the word lists used by 'matchwords' rules.  Each file is
+ * only loaded once, no matter how many rules or chains use it, until the
+ * rules are reloaded.
+ * <p/>
+ * A word list file has one word (or phrase) per line.  Blank lines and lines
+ * starting with # are ignored.
+ */
+public class WordListManager {
+    private static WordListManager _instance;
+    private final Map<String, WordTrie> wordLists = new HashMap<String, WordTrie>();
+
+    private WordListManager() {}
+
+    public static WordListManager getInstance() {
+        if (_instance == null) {
+            _instance = new WordListManager();
+        }
+        return _instance;
+    }
+
+    /**
+     * @param fileName Name of a file in the rules directory
+     * @return The word list, or null if the file could not be read.
+     */
+    public synchronized WordTrie getWordList(String fileName) {
+        WordTrie words = wordLists.get(fileName);
+        if (words == null) {
+            words = loadFile(fileName);
+            if (words != null) wordLists.put(fileName, words);
+        }
+        return words;
+    }
+
+    public synchronized void reloadFiles() {
+        // Just wipe out the old.  They will be reloaded on first access.
+        wordLists.clear();
+    }
+
+    private WordTrie loadFile(String fileName) {
+        File wordFile = RuleManager.getInstance().getFile(fileName, false);
+        if (wordFile == null) return null;
+
+        List<String> words = new ArrayList<String>();
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(wordFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    words.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LogManager.logger.warning("Unable to read word list: " + fileName + " (" + e.getMessage() + ")");
+            return null;
+        }
+
+        WordTrie trie = WordTrie.build(fileName, words);
+        LogManager.getInstance().debugMedium("Loaded word list: " + fileName + " (" + trie.size() +
+                " words, " + trie.nodeCount() + " nodes)");
+        return trie;
+    }
+}
@@ -11,7 +11,7 @@
 package com.pwn9.PwnFilter.rules.action;
 
 import com.pwn9.PwnFilter.FilterState;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import java.util.ArrayList;
@@ -20,12 +20,12 @@ import java.util.ArrayList;
  * Responds to the user with the string provided.
  */
 public class Actionbroadcast implements Action {
-    ArrayList<String> messageStrings = new ArrayList<String>();
+    ArrayList<MessageTemplate> messageTemplates = new ArrayList<MessageTemplate>();
 
     public void init(String s)
     {
         for ( String message : s.split("\n") ) {
-            messageStrings.add(ChatColor.translateAlternateColorCodes('&',message));
+            messageTemplates.add(MessageTemplate.compile(ChatColor.translateAlternateColorCodes('&',message)));
         }
     }
 
@@ -33,8 +33,8 @@ public class Actionbroadcast implements Action {
 
         final ArrayList<String> preparedMessages = new ArrayList<String>();
 
-        for (String message : messageStrings) {
-            preparedMessages.add(Patterns.replaceVars(message,state));
+        for (MessageTemplate message : messageTemplates) {
+            preparedMessages.add(message.render(state));
         }
 
         state.addLogMessage("Broadcasted: "+preparedMessages.get(0) + (preparedMessages.size() > 1?"...":""));
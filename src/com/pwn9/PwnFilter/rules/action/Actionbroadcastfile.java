@@ -14,7 +14,7 @@ import com.pwn9.PwnFilter.FilterState;
 import com.pwn9.PwnFilter.PwnFilter;
 import com.pwn9.PwnFilter.util.FileUtil;
 import com.pwn9.PwnFilter.util.LogManager;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import java.io.*;
@@ -24,7 +24,7 @@ import java.util.ArrayList;
  * Broadcasts the contents of the named file to all users.
  */
 public class Actionbroadcastfile implements Action {
-    ArrayList<String> messageStrings = new ArrayList<String>();
+    ArrayList<MessageTemplate> messageTemplates = new ArrayList<MessageTemplate>();
 
     public void init(String s)
     {
@@ -39,7 +39,7 @@ public class Actionbroadcastfile implements Action {
             BufferedReader br = new BufferedReader(new InputStreamReader(fs));
             String message;
             while ( (message = br.readLine()) != null ) {
-                messageStrings.add(ChatColor.translateAlternateColorCodes('&',message));
+                messageTemplates.add(MessageTemplate.compile(ChatColor.translateAlternateColorCodes('&',message)));
             }
             br.close();
         } catch (FileNotFoundException ex) {
@@ -52,8 +52,8 @@ public class Actionbroadcastfile implements Action {
     public boolean execute(final FilterState state ) {
         final ArrayList<String> preparedMessages = new ArrayList<String>();
 
-        for (String message : messageStrings) {
-            preparedMessages.add(Patterns.replaceVars(message,state));
+        for (MessageTemplate message : messageTemplates) {
+            preparedMessages.add(message.render(state));
         }
 
         state.addLogMessage("Broadcasted: "+preparedMessages.get(0) + (preparedMessages.size()>1?"...":""));
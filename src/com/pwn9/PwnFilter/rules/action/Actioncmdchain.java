@@ -11,7 +11,7 @@
 package com.pwn9.PwnFilter.rules.action;
 
 import com.pwn9.PwnFilter.FilterState;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 import java.util.ArrayList;
 
@@ -21,20 +21,22 @@ import java.util.ArrayList;
  * calls are NOT thread-safe.
  */
 public class Actioncmdchain implements Action {
-    String[] commands;
+    MessageTemplate[] commands;
 
     public void init(String s)
     {
-        commands = s.split("\\|");
-        if (commands[0].isEmpty()) throw new IllegalArgumentException("No commands were provided to 'cmdchain'");
+        String[] parts = s.split("\\|");
+        if (parts[0].isEmpty()) throw new IllegalArgumentException("No commands were provided to 'cmdchain'");
+        commands = new MessageTemplate[parts.length];
+        for (int i = 0; i < parts.length; i++) commands[i] = MessageTemplate.compile(parts[i]);
     }
 
     public boolean execute(final FilterState state ) {
         state.cancel = true;
         final ArrayList<String> parsedCommands = new ArrayList<String>();
 
-        for (String cmd : commands)
-            parsedCommands.add(Patterns.replaceVars(cmd, state));
+        for (MessageTemplate cmd : commands)
+            parsedCommands.add(cmd.render(state));
 
         if (state.getPlayer() != null ) {
             for (final String cmd : parsedCommands)
@@ -11,26 +11,27 @@
 package com.pwn9.PwnFilter.rules.action;
 
 import com.pwn9.PwnFilter.FilterState;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 
 /**
  * Execute a command as a player.
  */
 public class Actioncommand implements Action {
-    String command;
+    MessageTemplate command;
 
     public void init(String s)
     {
-        if ((command = s).isEmpty()) throw new IllegalArgumentException("No command was provided to 'command'");
+        if (s.isEmpty()) throw new IllegalArgumentException("No command was provided to 'command'");
+        command = MessageTemplate.compile(s);
     }
 
     public boolean execute(final FilterState state ) {
         state.cancel = true;
         final String cmd;
         if (state.getPlayer() != null ) {
-            if (!command.isEmpty()) {
-                cmd = Patterns.replaceVars(command, state);
+            if (!command.toString().isEmpty()) {
+                cmd = command.render(state);
                 state.addLogMessage("Helped " + state.playerName + " execute command: " + cmd);
             } else {
                 cmd = state.getModifiedMessage().getColoredString();
@@ -11,23 +11,24 @@
 package com.pwn9.PwnFilter.rules.action;
 
 import com.pwn9.PwnFilter.FilterState;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 
 /**
  * Execute a console command
  */
 public class Actionconsole implements Action {
-    String command;
+    MessageTemplate command;
 
     public void init(String s)
     {
-        if ((command = s).isEmpty()) throw new IllegalArgumentException("No command was provided to 'console'");
+        if (s.isEmpty()) throw new IllegalArgumentException("No command was provided to 'console'");
+        command = MessageTemplate.compile(s);
 
     }
 
     public boolean execute(final FilterState state ) {
-        final String cmd = Patterns.replaceVars(command, state);
+        final String cmd = command.render(state);
         state.addLogMessage("Sending console command: " + cmd);
         Bukkit.getScheduler().runTask(state.plugin, new Runnable() {
             @Override
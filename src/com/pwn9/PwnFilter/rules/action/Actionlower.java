@@ -16,7 +16,7 @@ import com.pwn9.PwnFilter.util.ColoredString;
 /**
  * Convert the matched text to lowercase.
  */
-public class Actionlower implements Action {
+public class Actionlower implements ModifyingAction {
 
     public void init(String s)
     {
@@ -26,10 +26,10 @@ public class Actionlower implements Action {
     public boolean execute(final FilterState state ) {
         ColoredString cs = state.getModifiedMessage();
         state.addLogMessage("Converting to lowercase.");
-        state.setModifiedMessage(cs.patternToLower(state.pattern));
+        state.setModifiedMessage(cs.patternToLower(state.findMatches()));
 
         if (state.rule.modifyRaw())
-            state.setUnfilteredMessage(state.getUnfilteredMessage().patternToLower(state.pattern));
+            state.setUnfilteredMessage(state.getUnfilteredMessage().patternToLower(state.rule.getMatchEngine()));
 
         return true;
     }
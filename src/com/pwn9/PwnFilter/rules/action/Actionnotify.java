@@ -12,7 +12,7 @@ package com.pwn9.PwnFilter.rules.action;
 
 import com.pwn9.PwnFilter.DataCache;
 import com.pwn9.PwnFilter.FilterState;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
@@ -22,7 +22,7 @@ import org.bukkit.entity.Player;
  */
 public class Actionnotify implements Action {
     String permissionString;
-    String messageString;
+    MessageTemplate messageTemplate;
 
     public void init(String s)
     {
@@ -35,7 +35,7 @@ public class Actionnotify implements Action {
         if (permissionString.isEmpty()) throw new IllegalArgumentException("'notify' action requires a permission or 'console'");
 
         if (parts.length > 1) {
-            messageString = ChatColor.translateAlternateColorCodes('&',parts[1]);
+            messageTemplate = MessageTemplate.compile(ChatColor.translateAlternateColorCodes('&',parts[1]));
         } else {
             throw new IllegalArgumentException("'notify' action requires a message string");
         }
@@ -47,7 +47,7 @@ public class Actionnotify implements Action {
     public boolean execute(final FilterState state ) {
 
         // Create the message to send
-        final String sendString = Patterns.replaceVars(messageString,state);
+        final String sendString = messageTemplate.render(state);
 
         if (permissionString.equalsIgnoreCase("console")) {
             Bukkit.getScheduler().runTask(state.plugin, new Runnable() {
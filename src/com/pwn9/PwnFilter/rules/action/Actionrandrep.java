@@ -17,7 +17,7 @@ import java.util.Random;
 /**
  * Replace the matched text with a random selection from a | seperated list of text.
  */
-public class Actionrandrep implements Action {
+public class Actionrandrep implements ModifyingAction {
     private static Random random = new Random();
 
     // toRand is a String array of options to chose from for replacement.
@@ -31,10 +31,10 @@ public class Actionrandrep implements Action {
 
     public boolean execute(final FilterState state ) {
         int randomInt = random.nextInt(toRand.length);
-        state.setModifiedMessage(state.getModifiedMessage().replaceText(state.pattern,toRand[randomInt]));
+        state.setModifiedMessage(state.getModifiedMessage().replaceText(state.findMatches(),toRand[randomInt]));
 
         if (state.rule.modifyRaw())
-            state.setUnfilteredMessage(state.getUnfilteredMessage().replaceText(state.pattern,toRand[randomInt]));
+            state.setUnfilteredMessage(state.getUnfilteredMessage().replaceText(state.rule.getMatchEngine(),toRand[randomInt]));
 
         return true;
     }
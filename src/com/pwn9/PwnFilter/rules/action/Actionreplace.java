@@ -16,7 +16,7 @@ import org.bukkit.ChatColor;
 /**
  * Decolor the whole string and replace the matched text with the replacement string.
  */
-public class Actionreplace implements Action {
+public class Actionreplace implements ModifyingAction {
     // messageString is what we will use to replace any matched text.
     String messageString = "";
 
@@ -27,10 +27,10 @@ public class Actionreplace implements Action {
     }
 
     public boolean execute(final FilterState state ) {
-        state.setModifiedMessage(state.getModifiedMessage().decolor().replaceText(state.pattern, messageString));
+        state.setModifiedMessage(state.getModifiedMessage().decolor().replaceText(state.findMatches(), messageString));
 
         if (state.rule.modifyRaw())
-            state.setUnfilteredMessage(state.getUnfilteredMessage().replaceText(state.pattern,messageString));
+            state.setUnfilteredMessage(state.getUnfilteredMessage().replaceText(state.rule.getMatchEngine(),messageString));
 
         return true;
     }
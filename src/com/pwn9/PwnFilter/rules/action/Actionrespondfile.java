@@ -13,7 +13,7 @@ package com.pwn9.PwnFilter.rules.action;
 import com.pwn9.PwnFilter.FilterState;
 import com.pwn9.PwnFilter.PwnFilter;
 import com.pwn9.PwnFilter.util.LogManager;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import java.io.BufferedReader;
@@ -25,7 +25,7 @@ import java.util.ArrayList;
  * Responds to the user with the string provided.
  */
 public class Actionrespondfile implements Action {
-    ArrayList<String> messageStrings = new ArrayList<String>();
+    ArrayList<MessageTemplate> messageTemplates = new ArrayList<MessageTemplate>();
 
     public void init(String s)
     {
@@ -33,22 +33,22 @@ public class Actionrespondfile implements Action {
             BufferedReader br = PwnFilter.getInstance().getBufferedReader(s);
             String message;
             while ( (message = br.readLine()) != null ) {
-                messageStrings.add(ChatColor.translateAlternateColorCodes('&',message));
+                messageTemplates.add(MessageTemplate.compile(ChatColor.translateAlternateColorCodes('&',message)));
             }
         } catch (FileNotFoundException ex) {
             LogManager.logger.warning("File not found while trying to add Action: " + ex.getMessage());
-            messageStrings.add("[PwnFilter] Configuration error: file not found.");
+            messageTemplates.add(MessageTemplate.compile("[PwnFilter] Configuration error: file not found."));
         } catch (IOException ex) {
             LogManager.logger.warning("Error reading file: " + s);
-            messageStrings.add("[PwnFilter] Error: respondfile IO.  Please notify admins.");
+            messageTemplates.add(MessageTemplate.compile("[PwnFilter] Error: respondfile IO.  Please notify admins."));
         }
     }
 
     public boolean execute(final FilterState state ) {
         final ArrayList<String> preparedMessages = new ArrayList<String>();
 
-        for (String message : messageStrings) {
-            preparedMessages.add(Patterns.replaceVars(message,state));
+        for (MessageTemplate message : messageTemplates) {
+            preparedMessages.add(message.render(state));
         }
 
         state.addLogMessage("Responded to " + state.playerName + " with: "+preparedMessages.get(0) + "...");
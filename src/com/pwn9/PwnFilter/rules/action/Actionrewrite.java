@@ -16,7 +16,7 @@ import org.bukkit.ChatColor;
 /**
  * Rewrite the string by replacing the matched text with the provided string.
  */
-public class Actionrewrite implements Action {
+public class Actionrewrite implements ModifyingAction {
     // messageString is what we will use to replace any matched text.
     String messageString = "";
 
@@ -26,10 +26,10 @@ public class Actionrewrite implements Action {
     }
 
     public boolean execute(final FilterState state) {
-        state.setModifiedMessage(state.getModifiedMessage().replaceText(state.pattern, messageString));
+        state.setModifiedMessage(state.getModifiedMessage().replaceText(state.findMatches(), messageString));
 
         if (state.rule.modifyRaw())
-            state.setUnfilteredMessage(state.getUnfilteredMessage().replaceText(state.pattern,messageString));
+            state.setUnfilteredMessage(state.getUnfilteredMessage().replaceText(state.rule.getMatchEngine(),messageString));
 
         return true;
     }
@@ -16,7 +16,7 @@ import com.pwn9.PwnFilter.util.ColoredString;
 /**
  * Convert the matched text to uppercase.
  */
-public class Actionupper implements Action {
+public class Actionupper implements ModifyingAction {
 
     public void init(String s)
     {
@@ -26,11 +26,11 @@ public class Actionupper implements Action {
     public boolean execute(final FilterState state ) {
         ColoredString cs = state.getModifiedMessage();
         state.addLogMessage("Converting to uppercase.");
-        state.setModifiedMessage(cs.patternToUpper(state.pattern));
+        state.setModifiedMessage(cs.patternToUpper(state.findMatches()));
 
         if (state.rule.modifyRaw())
         	// Make a state for patternToUpper
-            state.setUnfilteredMessage(state.getUnfilteredMessage().patternToUpper(state.pattern));
+            state.setUnfilteredMessage(state.getUnfilteredMessage().patternToUpper(state.rule.getMatchEngine()));
         return true;
     }
 }
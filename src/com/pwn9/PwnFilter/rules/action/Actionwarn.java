@@ -12,7 +12,7 @@ package com.pwn9.PwnFilter.rules.action;
 
 import com.pwn9.PwnFilter.FilterState;
 import com.pwn9.PwnFilter.util.DefaultMessages;
-import com.pwn9.PwnFilter.util.Patterns;
+import com.pwn9.PwnFilter.util.MessageTemplate;
 import org.bukkit.Bukkit;
 
 /**
@@ -20,16 +20,16 @@ import org.bukkit.Bukkit;
  */
 public class Actionwarn implements Action {
     // Message to apply to this warn action
-    String messageString;
+    MessageTemplate messageTemplate;
 
     public void init(String s)
     {
-        messageString = DefaultMessages.prepareMessage(s, "warnmsg");
+        messageTemplate = MessageTemplate.compile(DefaultMessages.prepareMessage(s, "warnmsg"));
     }
 
     public boolean execute(final FilterState state ) {
         if ( state.getPlayer() == null ) return false;
-        final String message = Patterns.replaceVars(messageString,state);
+        final String message = messageTemplate.render(state);
         state.addLogMessage("Warned " + state.playerName + ": " + message);
         Bukkit.getScheduler().runTask(state.plugin, new Runnable() {
             @Override
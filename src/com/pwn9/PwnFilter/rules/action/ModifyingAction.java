@@ -0,0 +1,20 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.rules.action;
+
+/**
+ * Actions which change the text of the message (replace, rewrite, etc.)
+ * Rules after one of these see a different message, so rules using them are
+ * never re-ordered within a chain.
+ */
+
+public interface ModifyingAction extends Action {
+}
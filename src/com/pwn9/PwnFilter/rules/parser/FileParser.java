@@ -14,12 +14,15 @@ import com.pwn9.PwnFilter.rules.*;
 import com.pwn9.PwnFilter.rules.action.Action;
 import com.pwn9.PwnFilter.rules.action.ActionFactory;
 import com.pwn9.PwnFilter.util.LogManager;
+import com.pwn9.PwnFilter.util.regex.RedosAnalyzer;
+import com.pwn9.PwnFilter.util.regex.WordTrie;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * Text-file Rule Parser
@@ -36,12 +39,19 @@ public class FileParser {
 
     private int lineNo;
     private Map<String, String> shortcuts = null;
+    private Rule.Engine engine = Rule.Engine.java;
+    private boolean normalize = false;
     private Chain chain;
 
     public FileParser(String filename, FileParser parent, boolean createFile) {
         this.filename = filename;
         this.parent = parent;
         this.createFile = createFile;
+        // Included files use the same regex engine (and normalization) as the file including them.
+        if (parent != null) {
+            engine = parent.engine;
+            normalize = parent.normalize;
+        }
     }
 
     public FileParser(String filename) {
@@ -126,11 +136,27 @@ public class FileParser {
                         String fileName = tokenString.popToken();
                         toggleShortcuts(fileName);
                     }
+                    // Check if this is a toggle for the regex engine.
+                    else if (command.equalsIgnoreCase("engine")) {
+                        engine = parseEngine(tokenString.popToken());
+                    }
+                    // Check if this is a toggle for matching the normalized message.
+                    else if (command.equalsIgnoreCase("normalize")) {
+                        normalize = parseToggle(tokenString.popToken());
+                    }
                     // Process an included file
                     else if (command.equalsIgnoreCase("include")) {
                         String fileName = tokenString.popToken();
                         processIncludedFile(fileName);
                     }
+                    // Parse a rule starting with a word list
+                    else if (command.equalsIgnoreCase("matchwords")) {
+                        String fileName = tokenString.popToken();
+                        List<NumberedLine> section = reader.readSection();
+                        Rule rule = new Rule();
+                        rule.setWordList(loadWordList(fileName));
+                        parseRule(rule, section);
+                    }
                     // Parse a rule starting with the pattern
                     else if (command.matches("match|catch|replace|rewrite")) {
                         String pattern = ShortCutManager.replace(shortcuts,tokenString.getString());
@@ -162,6 +188,11 @@ public class FileParser {
 
     private boolean parseRule(Rule rule, List<NumberedLine> lines) throws IOException, ParserException {
 
+        Rule.Engine ruleEngine = engine;
+        boolean ruleNormalize = normalize;
+        int patternLine = lineNo;
+        String patternSource = null; // The regex as written, with shortcuts filled in
+
         for (NumberedLine line : lines) {
             TokenString tokenString = new TokenString(line.string);
             String command = tokenString.popToken();
@@ -172,7 +203,21 @@ public class FileParser {
                 rule.setDescription(tokenString.getString()); // Second argument is the Description
             }
             else if (command.equalsIgnoreCase("match")) {
-                rule.setPattern(ShortCutManager.replace(shortcuts, tokenString.getString()));
+                patternSource = ShortCutManager.replace(shortcuts, tokenString.getString());
+                rule.setPattern(patternSource);
+                patternLine = line.number;
+            }
+            // matchwords <file>
+            else if (command.equalsIgnoreCase("matchwords")) {
+                rule.setWordList(loadWordList(tokenString.popToken()));
+            }
+            // engine <java|re2>
+            else if (command.equalsIgnoreCase("engine")) {
+                ruleEngine = parseEngine(tokenString.popToken());
+            }
+            // normalize [on|off]
+            else if (command.equalsIgnoreCase("normalize")) {
+                ruleNormalize = parseToggle(tokenString.popToken());
             }
             // conditions <conditiongroup>
             else if (command.equalsIgnoreCase("conditions")) {
@@ -227,6 +272,14 @@ public class FileParser {
             }
         }
         if (rule != null && rule.isValid()) {
+            rule.setNormalize(ruleNormalize);
+            if (!rule.setEngine(ruleEngine)) {
+                parserError(lineNo, "Pattern can't be run by the " + ruleEngine + " engine (backreferences, " +
+                        "lookaround, etc.).  Using java engine for: " + patternSource);
+            }
+            if (patternSource != null && !rule.getMatchEngine().isLinear()) {
+                checkBacktracking(rule, patternSource, patternLine);
+            }
             chain.append(rule);
             return true;
         }
@@ -333,6 +386,49 @@ public class FileParser {
         }
     }
 
+    /**
+     * Make quantifiers possessive where that can't change what the rule
+     * matches, and warn about anything else that could backtrack forever.
+     * Rules are case-insensitive, and the regex is checked (and reported)
+     * as written, rather than as it was rewritten for case folding.
+     *
+     * @param source The regex from the rule file, with shortcuts filled in.
+     */
+    private void checkBacktracking(Rule rule, String source, int line) {
+        String hardened = RedosAnalyzer.harden(source, Pattern.CASE_INSENSITIVE);
+        if (!hardened.equals(source)) {
+            LogManager.getInstance().debugMedium("Hardened regex: " + source + " -> " + hardened);
+            rule.setPattern(hardened);
+        }
+        for (String problem : RedosAnalyzer.findProblems(hardened, Pattern.CASE_INSENSITIVE)) {
+            parserError(line, "Regex may backtrack catastrophically (" + problem + ").  Consider " +
+                    "rewriting it, or using 'engine re2': " + source +
+                    (hardened.equals(source) ? "" : " (hardened: " + hardened + ")"));
+        }
+    }
+
+    private WordTrie loadWordList(String fileName) throws ParserException {
+        if (fileName.isEmpty()) throw new ParserException(lineNo, "No word list file given for matchwords");
+        WordTrie words = WordListManager.getInstance().getWordList(fileName);
+        if (words == null) throw new ParserException(lineNo, "Could not load word list: " + fileName);
+        return words;
+    }
+
+    private boolean parseToggle(String value) throws ParserException {
+        if (value.isEmpty() || value.equalsIgnoreCase("on")) return true;
+        if (value.equalsIgnoreCase("off")) return false;
+        throw new ParserException(lineNo, "Expected 'on' or 'off', not: " + value);
+    }
+
+    private Rule.Engine parseEngine(String name) throws ParserException {
+        if (name.isEmpty()) return Rule.Engine.java;
+        try {
+            return Rule.Engine.valueOf(name.toLowerCase());
+        } catch (IllegalArgumentException ex) {
+            throw new ParserException(lineNo, "Unknown regex engine: " + name);
+        }
+    }
+
     /**
      * The parserError method generates a standardized warning message in the
      * Minecraft console log.
@@ -0,0 +1,185 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import java.util.*;
+
+/**
+ * A case-insensitive Aho-Corasick automaton.  Finds every keyword that
+ * appears in a text in a single pass, no matter how many keywords there are.
+ * <p/>
+ * Each keyword is added with an int value (eg: a rule index).  scan() sets
+ * the bit for the value of every keyword found.  Both keywords and text are
+ * compared char-by-char using Character.toLowerCase().
+ * <p/>
+ * Once built, the automaton is immutable and safe to share between threads.
+ */
+public final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    // Compact, read-only form of the trie.
+    private final char[][] edgeChars;  // Sorted outgoing edge labels per node
+    private final int[][] edgeTargets; // Target node per edge
+    private final int[] fail;
+    private final int[][] outputs;     // Values matched on reaching each node
+    private final int[] rootAscii;     // Fast path for the root node
+
+    private AhoCorasick(Builder b) {
+        int n = b.nodes.size();
+        edgeChars = new char[n][];
+        edgeTargets = new int[n][];
+        fail = new int[n];
+        outputs = new int[n][];
+
+        for (int i = 0; i < n; i++) {
+            TreeMap<Character, Integer> edges = b.nodes.get(i);
+            edgeChars[i] = new char[edges.size()];
+            edgeTargets[i] = new int[edges.size()];
+            int j = 0;
+            for (Map.Entry<Character, Integer> e : edges.entrySet()) {
+                edgeChars[i][j] = e.getKey();
+                edgeTargets[i][j] = e.getValue();
+                j++;
+            }
+        }
+
+        rootAscii = new int[128];
+        Arrays.fill(rootAscii, ROOT);
+        for (int j = 0; j < edgeChars[ROOT].length; j++) {
+            if (edgeChars[ROOT][j] < 128) rootAscii[edgeChars[ROOT][j]] = edgeTargets[ROOT][j];
+        }
+
+        // Breadth-first, compute failure links and merge outputs.
+        List<Set<Integer>> out = new ArrayList<Set<Integer>>(n);
+        for (int i = 0; i < n; i++) out.add(new TreeSet<Integer>(b.values.get(i)));
+
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        for (int target : edgeTargets[ROOT]) {
+            fail[target] = ROOT;
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int j = 0; j < edgeChars[node].length; j++) {
+                char c = edgeChars[node][j];
+                int target = edgeTargets[node][j];
+                int f = fail[node];
+                while (f != ROOT && next(f, c) < 0) f = fail[f];
+                int fTarget = next(f, c);
+                fail[target] = (fTarget >= 0 && fTarget != target) ? fTarget : ROOT;
+                out.get(target).addAll(out.get(fail[target]));
+                queue.add(target);
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            Set<Integer> values = out.get(i);
+            outputs[i] = new int[values.size()];
+            int j = 0;
+            for (int v : values) outputs[i][j++] = v;
+        }
+    }
+
+    /**
+     * @return the node reached from node on c, or -1 if there is no edge.
+     */
+    private int next(int node, char c) {
+        if (node == ROOT && c < 128) {
+            int target = rootAscii[c];
+            return (target == ROOT) ? -1 : target;
+        }
+        char[] chars = edgeChars[node];
+        int i = Arrays.binarySearch(chars, c);
+        return (i >= 0) ? edgeTargets[node][i] : -1;
+    }
+
+    /**
+     * Scan the text, setting the bit for the value of each keyword found.
+     *
+     * @param text The text to search
+     * @param hits BitSet to set the values in.
+     */
+    public void scan(CharSequence text, BitSet hits) {
+        int node = ROOT;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int target;
+            while ((target = next(node, c)) < 0 && node != ROOT) {
+                node = fail[node];
+            }
+            node = (target < 0) ? ROOT : target;
+            for (int v : outputs[node]) hits.set(v);
+        }
+    }
+
+    /**
+     * @return true if any keyword appears in the text.
+     */
+    public boolean containsAny(CharSequence text) {
+        int node = ROOT;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int target;
+            while ((target = next(node, c)) < 0 && node != ROOT) {
+                node = fail[node];
+            }
+            node = (target < 0) ? ROOT : target;
+            if (outputs[node].length > 0) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return edgeChars.length;
+    }
+
+    public static class Builder {
+        private final List<TreeMap<Character, Integer>> nodes = new ArrayList<TreeMap<Character, Integer>>();
+        private final List<Set<Integer>> values = new ArrayList<Set<Integer>>();
+
+        public Builder() {
+            newNode();
+        }
+
+        private int newNode() {
+            nodes.add(new TreeMap<Character, Integer>());
+            values.add(new HashSet<Integer>(2));
+            return nodes.size() - 1;
+        }
+
+        /**
+         * Add a keyword.
+         *
+         * @param keyword Non-empty keyword to find.
+         * @param value   Value to report when the keyword is found.
+         */
+        public Builder add(String keyword, int value) {
+            if (keyword.isEmpty()) throw new IllegalArgumentException("Empty keyword");
+            int node = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                Integer next = nodes.get(node).get(c);
+                if (next == null) {
+                    next = newNode();
+                    nodes.get(node).put(c, next);
+                }
+                node = next;
+            }
+            values.get(node).add(value);
+            return this;
+        }
+
+        public AhoCorasick build() {
+            return new AhoCorasick(this);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes log records to pwnfilter.log without making the thread that logged
+ * them wait for the disk.  Records go into a RingBuffer, and a background
+ * thread formats them and writes them out in batches.
+ * <p/>
+ * The log is rotated at midnight and/or when it gets too big.  The old log
+ * is renamed to pwnfilter-yyyy-MM-dd.log (-1, -2, ... if there's more than one
+ * that day) and gzipped by another thread.
+ * <p/>
+ * If the buffer fills up (eg: the disk is very slow), records are either
+ * dropped and counted, or the logging thread waits for space, depending on the
+ * FullPolicy.  The number of dropped records is written to the log.
+ */
+public class AuditLogHandler extends Handler {
+
+    public enum FullPolicy {
+        drop,  // Drop the record, and count it.
+        block, // Wait for the writer to make room.
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Most records to format into one write.
+    private static final int BATCH_SIZE = 256;
+    // How long the writer sleeps when there's nothing to write.
+    private static final long IDLE_NANOS = 50000000L;
+
+    private final File file;
+    private final RingBuffer<LogRecord> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private volatile FullPolicy fullPolicy;
+    private volatile long maxSize; // Bytes, 0 for no limit
+    private volatile boolean daily;
+    private volatile boolean compress;
+
+    // Writer thread only
+    private FileOutputStream out;
+    private FileChannel channel;
+    private long size;
+    private long dayEnd; // When the current day's log ends
+
+    /**
+     * Open the log file, and start the writer thread.
+     *
+     * @param file The log file
+     * @param bufferSize Records that can be waiting to be written
+     */
+    public AuditLogHandler(File file, int bufferSize, FullPolicy fullPolicy,
+                           long maxSize, boolean daily, boolean compress) throws IOException {
+        this.file = file;
+        buffer = new RingBuffer<LogRecord>(bufferSize);
+        configure(fullPolicy, maxSize, daily, compress);
+        setFormatter(new PwnFormatter());
+        open();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "PwnFilter log writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Change the settings which can be changed while running.
+     */
+    public void configure(FullPolicy fullPolicy, long maxSize, boolean daily, boolean compress) {
+        this.fullPolicy = fullPolicy;
+        this.maxSize = maxSize;
+        this.daily = daily;
+        this.compress = compress;
+    }
+
+    /**
+     * @return The number of records dropped because the buffer was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!running || !isLoggable(record)) return;
+        if (buffer.offer(record)) return;
+
+        if (fullPolicy == FullPolicy.block) {
+            LockSupport.unpark(writer);
+            while (running && !buffer.offer(record)) {
+                LockSupport.parkNanos(100000L);
+            }
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void flush() {
+        // The writer thread writes out records as soon as it gets them.
+    }
+
+    /**
+     * Write out everything that's waiting, and stop the writer thread.
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        StringBuilder sb = new StringBuilder(16384);
+        while (true) {
+            // Read this first, so nothing added before close() gets left behind.
+            boolean stopping = !running;
+            int count = 0;
+            LogRecord record;
+            while (count < BATCH_SIZE && (record = buffer.poll()) != null) {
+                try {
+                    sb.append(getFormatter().format(record));
+                } catch (RuntimeException ex) {
+                    reportError(null, ex, ErrorManager.FORMAT_FAILURE);
+                }
+                count++;
+            }
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                sb.append(getFormatter().format(new LogRecord(Level.WARNING,
+                        lost + " log messages were dropped, the log buffer was full.")));
+            }
+
+            if (sb.length() > 0) {
+                write(sb);
+                sb.setLength(0);
+            }
+            if (count == BATCH_SIZE) continue;
+            if (stopping) break;
+            LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+        closeFile();
+    }
+
+    private void write(StringBuilder sb) {
+        try {
+            if (channel == null) open();
+            if ((daily && System.currentTimeMillis() >= dayEnd) || (maxSize > 0 && size >= maxSize)) {
+                rotate();
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(UTF8));
+            while (bytes.hasRemaining()) size += channel.write(bytes);
+        } catch (IOException ex) {
+            reportError("Unable to write to " + file, ex, ErrorManager.WRITE_FAILURE);
+            closeFile(); // Try again with the next batch.
+        }
+    }
+
+    private void open() throws IOException {
+        // An existing log belongs to the day it was last written.
+        long started = file.exists() ? file.lastModified() : System.currentTimeMillis();
+        out = new FileOutputStream(file, true);
+        channel = out.getChannel();
+        size = channel.size();
+        dayEnd = endOfDay(started);
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ex) {
+            reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+        }
+        out = null;
+        channel = null;
+    }
+
+    private void rotate() throws IOException {
+        String day = new SimpleDateFormat("yyyy-MM-dd").format(new Date(dayEnd - 1));
+        closeFile();
+
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = (dot > 0) ? name.substring(0, dot) : name;
+        String ext = (dot > 0) ? name.substring(dot) : "";
+        File rotated;
+        int n = 0;
+        do {
+            String suffix = (n == 0) ? "" : "-" + n;
+            rotated = new File(file.getParentFile(), base + "-" + day + suffix + ext);
+            n++;
+        } while (rotated.exists() || new File(rotated.getPath() + ".gz").exists());
+
+        if (!file.renameTo(rotated)) {
+            reportError("Unable to rotate " + file, null, ErrorManager.GENERIC_FAILURE);
+        } else if (compress) {
+            compressLater(rotated);
+        }
+        open();
+    }
+
+    private void compressLater(final File log) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File gz = new File(log.getPath() + ".gz");
+                try {
+                    InputStream in = new FileInputStream(log);
+                    try {
+                        OutputStream zip = new GZIPOutputStream(new FileOutputStream(gz));
+                        try {
+                            byte[] buf = new byte[65536];
+                            int len;
+                            while ((len = in.read(buf)) > 0) zip.write(buf, 0, len);
+                        } finally {
+                            zip.close();
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    if (!log.delete()) {
+                        reportError("Unable to delete " + log, null, ErrorManager.GENERIC_FAILURE);
+                    }
+                } catch (IOException ex) {
+                    reportError("Unable to compress " + log, ex, ErrorManager.GENERIC_FAILURE);
+                    gz.delete();
+                }
+            }
+        }, "PwnFilter log compressor");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static long endOfDay(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        c.add(Calendar.DAY_OF_MONTH, 1);
+        return c.getTimeInMillis();
+    }
+}
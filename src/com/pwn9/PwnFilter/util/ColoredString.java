@@ -10,8 +10,11 @@
 
 package com.pwn9.PwnFilter.util;
 
+import com.pwn9.PwnFilter.util.regex.JavaMatchEngine;
+import com.pwn9.PwnFilter.util.regex.MatchCursor;
+import com.pwn9.PwnFilter.util.regex.MatchEngine;
+
 import java.util.Arrays;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -26,18 +29,31 @@ import java.util.regex.Pattern;
  * plain:
  * The quick brown fox jumped over the lazy dog
  * codes:
- * {,,,,,,,,,,&4,,,,,,,,,&1&k,&2,&3,&4,&5,&6,,,,,&7,,,,,,,,,&l,,,}
+ * {10:&4, 20:&1&k, 21:&2, 22:&3, 23:&4, 24:&5, 25:&6, 30:&7, 40:&l}
  *
- * The codes array maps codes to the character following it.  In the example above, plain[10] = 'b', codes[10] = "&4"
+ * Codes are kept against the position of the character following them, in
+ * two parallel arrays: the positions, in order, and the (interned) codes.
+ * In the example above, plain[10] = 'b', and the code at position 10 is "&4".
+ * A code at position length() comes after the last character.  Most text has
+ * few codes, or none, so this is a lot smaller than one slot per character.
  *
  * In any string modification action, the codes will be updated to reflect the new string.
  *
+ * A ColoredString is immutable: modifications return a new ColoredString.
+ * The plain and coloured Strings are only built once, when first asked for.
+ *
  */
 public final class ColoredString implements CharSequence {
 
-    private final String[] codes; // The String array containing the color / formatting codes
+    private static final int[] NO_POSITIONS = new int[0];
+    private static final String[] NO_CODES = new String[0];
+
+    private final int[] codePositions; // Positions of the codes, in order
+    private final String[] codes; // The color / formatting codes at each position
     private final char[] plain; // the plain text
     private final char formatPrefix;
+    private String plainString; // Built on first use
+    private String coloredString; // Built on first use
 
     public ColoredString(String s) {
         this(s, '&');
@@ -45,19 +61,24 @@ public final class ColoredString implements CharSequence {
 
     public ColoredString(String s, char prefix) {
         formatPrefix = prefix;
+        if (s.indexOf(prefix) < 0) {
+            // No codes, which is most messages.
+            plain = s.toCharArray();
+            codePositions = NO_POSITIONS;
+            codes = NO_CODES;
+            plainString = s;
+            coloredString = s;
+            return;
+        }
         char[] raw = s.toCharArray();
         char[] tmpPlain = new char[raw.length];
-        String[] tmpCodes = new String[raw.length+1];
+        CodeList tmpCodes = new CodeList();
 
         int textpos = 0;
 
         for (int i = 0; i < raw.length ; i++) {
             if (i != raw.length-1 && raw[i] == formatPrefix && "0123456789AaBbCcDdEeFfKkLlMmNnOoRr".indexOf(raw[i+1]) > -1) {
-                if (tmpCodes[textpos] == null) {
-                    tmpCodes[textpos] = new String(raw,i,2);
-                } else {
-                    tmpCodes[textpos] += new String(raw,i,2);
-                }
+                tmpCodes.add(textpos, new String(raw, i, 2));
                 i++; // Move past the code character.
             } else {
                 tmpPlain[textpos] = raw[i];
@@ -65,21 +86,41 @@ public final class ColoredString implements CharSequence {
             }
         }
         plain = Arrays.copyOf(tmpPlain,textpos);
-        // Copy one more code than the plain string
-        // so we can capture any trailing format codes.
-        codes = Arrays.copyOf(tmpCodes,textpos+1);
+        codePositions = tmpCodes.positions();
+        codes = tmpCodes.codes();
     }
 
     public ColoredString(ColoredString c) {
-        // Create a copy of the original array.
+        // Share the arrays, they are never changed.
+        codePositions = c.codePositions;
         codes = c.codes;
         plain = c.plain;
         formatPrefix = c.formatPrefix;
+        plainString = c.plainString;
+        coloredString = c.coloredString;
     }
 
+    /**
+     * @param plain The plain text
+     * @param codes The code before each char (or null), plus one for any
+     *              trailing codes.  See {@link #getCodeArray()}
+     * @param prefix The format code prefix
+     */
     public ColoredString(char[] plain, String[] codes, char prefix) {
+        CodeList tmpCodes = new CodeList();
+        for (int i = 0; i < codes.length && i <= plain.length; i++) {
+            if (codes[i] != null) tmpCodes.add(i, codes[i]);
+        }
+        this.plain = plain;
+        this.codePositions = tmpCodes.positions();
+        this.codes = tmpCodes.codes();
+        formatPrefix = prefix;
+    }
+
+    private ColoredString(char[] plain, int[] codePositions, String[] codes, char prefix) {
         this.plain = plain;
-        this.codes = Arrays.copyOf(codes,plain.length+1);
+        this.codePositions = codePositions;
+        this.codes = codes;
         formatPrefix = prefix;
     }
 
@@ -103,32 +144,61 @@ public final class ColoredString implements CharSequence {
 
     // Strip all codes out of this string.
     public ColoredString decolor() {
-        return new ColoredString(new String(plain));
+        for (char c : plain) {
+            // There may be something that looks like a code in the plain
+            // text, which will be parsed as one.
+            if (c == formatPrefix) return new ColoredString(getPlainString());
+        }
+        if (codes.length == 0) return this;
+        ColoredString result = new ColoredString(plain, NO_POSITIONS, NO_CODES, formatPrefix);
+        result.plainString = plainString;
+        return result;
     }
 
     // Return a string with color codes interleaved.
     public String getColoredString() {
-        StringBuilder sb = new StringBuilder();
-
-        for (int i = 0 ; i < plain.length ; i++ ) {
-            if ( codes[i] != null ) sb.append(codes[i]);
-            sb.append(plain[i]);
+        if (coloredString != null) return coloredString;
+        StringBuilder sb = new StringBuilder(plain.length + codes.length * 2);
+
+        int last = 0;
+        for (int i = 0 ; i < codes.length ; i++ ) {
+            sb.append(plain, last, codePositions[i] - last);
+            sb.append(codes[i]);
+            last = codePositions[i];
         }
-        // Check to see if there is a code at the end of the text
-        // If so, append it to the end of the string.
-        if (codes[codes.length-1] != null)
-            sb.append(codes[codes.length-1]);
-        return sb.toString();
+        sb.append(plain, last, plain.length - last);
+        coloredString = sb.toString();
+        return coloredString;
     }
 
     // Return a string without codes
     public String getPlainString() {
-        return new String(plain);
+        if (plainString == null) plainString = new String(plain);
+        return plainString;
     }
 
-    // Return the char array with the code information.
+    /**
+     * @return A new array with the code before each char (or null), plus one
+     * more for any codes after the last char.
+     */
     public String[] getCodeArray() {
-        return codes;
+        String[] result = new String[plain.length + 1];
+        for (int i = 0; i < codes.length; i++) {
+            result[codePositions[i]] = codes[i];
+        }
+        return result;
+    }
+
+    /**
+     * Add the codes at positions from..to (inclusive) to a list, moved along
+     * by offset.
+     */
+    private void copyCodes(CodeList out, int from, int to, int offset) {
+        int i = Arrays.binarySearch(codePositions, from);
+        if (i < 0) i = -(i + 1);
+        for (; i < codes.length && codePositions[i] <= to; i++) {
+            out.add(codePositions[i] + offset, codes[i]);
+        }
     }
 
 
@@ -155,126 +225,129 @@ public final class ColoredString implements CharSequence {
      * @param rText Replacement Text
      */
     public ColoredString replaceText(Pattern p, String rText) {
-        Matcher m = p.matcher(new String(plain));
-        ColoredString replacement = new ColoredString(rText);
-
-        // Start with an empty set of arrays.  These will be incrementally added
-        // to, as we replace each match.
-        char[] lastMatchText = new char[0];
-        String[] lastMatchCodes = new String[1];
+        return replaceText(new JavaMatchEngine(p), rText);
+    }
 
-        int currentPosition = 0;
+    /**
+     * Replace all matches of the engine's pattern with replacement String.
+     * See {@link #replaceText(Pattern, String)}
+     *
+     * @param engine The engine to find matches with
+     * @param rText Replacement Text
+     */
+    public ColoredString replaceText(MatchEngine engine, String rText) {
+        return replaceText(engine.matcher(getPlainString()), rText);
+    }
 
+    /**
+     * Replace matches which have already been found with replacement String.
+     * See {@link #replaceText(Pattern, String)}
+     *
+     * @param m The matches, in order, as positions in this string's plain text
+     * @param rText Replacement Text
+     */
+    public ColoredString replaceText(MatchCursor m, String rText) {
+        ColoredString replacement = new ColoredString(rText);
+        EditList edits = new EditList();
         while (m.find()) {
-            int mStart = m.start();
-            int mEnd = m.end();
-
-            int lastMatchTextLength = lastMatchText.length;
-            int middleLen = mStart - currentPosition;
-
-            int newLength = lastMatchTextLength + middleLen + replacement.length();
-
-            char[] currentText = new char[newLength];
-            String[] currentCodes = new String[newLength+1];
-
-            // Copy all of the text up to the end of the last match.
-            System.arraycopy(lastMatchText,0,currentText,0,lastMatchTextLength);
-            // Copy any text between the end of the last match and the start
-            // of this match.
-            System.arraycopy(plain,currentPosition,currentText,lastMatchTextLength ,middleLen);
-            // Append replacement text in place of current text.
-            System.arraycopy(replacement.plain,0,currentText,lastMatchTextLength+middleLen,replacement.length());
-
-            /*
-             Now, copy the format codes.  If there are "trailing" format codes
-             from the previous match, prepend them to the codes for the next character.
-            */
-
-            // First, the codes up to the end of the last match, including any trailing codes.
-            System.arraycopy(lastMatchCodes,0,currentCodes,0,lastMatchTextLength+1);
-
-            // Append the first code to the trailing code.
-            currentCodes[lastMatchTextLength] = mergeCodes(currentCodes[lastMatchTextLength],codes[currentPosition]);
+            edits.add(m.start(), m.end(), replacement);
+        }
+        return applyEdits(edits);
+    }
 
-            // Copy the codes from between the last match and this one.
-            System.arraycopy(codes,currentPosition+1,currentCodes,lastMatchTextLength+1,middleLen);
+    /**
+     * Make a list of replacements, all in one pass.
+     * <p/>
+     * The text between the edits is copied with its codes.  The code before
+     * the first char after an edit goes after any "trailing" codes of its
+     * replacement, and the code before an edit goes before the first code of
+     * its replacement.  Codes inside the replaced text are dropped.
+     *
+     * @param edits The replacements, as positions in this string's plain text
+     * @return The new string (or this one, if there are no edits).
+     */
+    public ColoredString applyEdits(EditList edits) {
+        if (edits.size == 0) return this;
 
-            // Append the first replacement code to the trailing code.
-            currentCodes[lastMatchTextLength+middleLen] = mergeCodes(currentCodes[lastMatchTextLength+middleLen],replacement.codes[0]);
+        // Work out the new length first, so the text is only copied once.
+        int length = plain.length;
+        for (int i = 0; i < edits.size; i++) {
+            length += edits.replacements[i].length() - (edits.ends[i] - edits.starts[i]);
+        }
+        char[] newText = new char[length];
+        CodeList newCodes = new CodeList();
 
-            // Copy the codes from the replacement text.
-            if (replacement.codes.length > 1)
-                System.arraycopy(replacement.codes,1,currentCodes,lastMatchTextLength+1+middleLen,replacement.length());
+        int currentPosition = 0; // Position in this string
+        int out = 0; // Position in the new string
 
+        for (int i = 0; i < edits.size; i++) {
+            int start = edits.starts[i];
+            ColoredString replacement = edits.replacements[i];
 
-            currentPosition = mEnd; // Set the position in the original string to the end of the match
+            // The text between the last edit and this one.
+            copyCodes(newCodes, currentPosition, start, out - currentPosition);
+            System.arraycopy(plain, currentPosition, newText, out, start - currentPosition);
+            out += start - currentPosition;
 
-            lastMatchText = currentText;
-            lastMatchCodes = currentCodes;
+            // The replacement, in place of the edited text.
+            replacement.copyCodes(newCodes, 0, replacement.length(), out);
+            System.arraycopy(replacement.plain, 0, newText, out, replacement.length());
+            out += replacement.length();
 
+            currentPosition = edits.ends[i];
         }
 
-        char[] tempText = new char[lastMatchText.length + plain.length - currentPosition];
-        String[] tempCodes = new String[lastMatchText.length + plain.length - currentPosition + 1 ];
-
-        // Copy the text we've processed in previous matches.
-        System.arraycopy(lastMatchText,0,tempText,0,lastMatchText.length);
-        // ... and copy the formats
-        System.arraycopy(lastMatchCodes,0,tempCodes,0,lastMatchText.length);
-
-        // Copy the original text from the end of the last match to the end
-        // of the string.
-        System.arraycopy(plain,currentPosition,tempText,lastMatchText.length,plain.length - currentPosition);
+        // The rest of the text after the last edit, and any trailing codes.
+        copyCodes(newCodes, currentPosition, plain.length, out - currentPosition);
+        System.arraycopy(plain, currentPosition, newText, out, plain.length - currentPosition);
 
-        // Merge the codes from the end of the last segment and the beginning of this one
-        tempCodes[lastMatchText.length] = mergeCodes(lastMatchCodes[lastMatchText.length],codes[currentPosition]);
-
-        // Copy the remaining codes (not the first one, it was already appended),
-        // as well as the trailing code.
-        System.arraycopy(codes,currentPosition+1,tempCodes,lastMatchText.length+1,plain.length - currentPosition);
+        return new ColoredString(newText, newCodes.positions(), newCodes.codes(), formatPrefix);
+    }
 
-        return new ColoredString(tempText, tempCodes, formatPrefix);
+    public ColoredString patternToLower (Pattern p) {
+        return patternToLower(new JavaMatchEngine(p));
+    }
 
+    public ColoredString patternToLower (MatchEngine engine) {
+        return patternToLower(engine.matcher(getPlainString()));
     }
 
-    public ColoredString patternToLower (Pattern p) {
-        Matcher m = p.matcher(new String(plain));
+    public ColoredString patternToLower (MatchCursor m) {
+        // Copies share arrays, so don't change this one in place.
+        char[] tempText = null;
 
         while (m.find()) {
+            if (tempText == null) tempText = plain.clone();
             for (int i = m.start() ; i < m.end() ; i++ ) {
-                plain[i] = Character.toLowerCase(plain[i]);
+                tempText[i] = Character.toLowerCase(tempText[i]);
             }
         }
-        return new ColoredString(this);
+        if (tempText == null) return this;
+        return new ColoredString(tempText, codePositions, codes, formatPrefix);
     }
     
     public ColoredString patternToUpper (Pattern p) {
-        Matcher m = p.matcher(new String(plain));
+        return patternToUpper(new JavaMatchEngine(p));
+    }
+
+    public ColoredString patternToUpper (MatchEngine engine) {
+        return patternToUpper(engine.matcher(getPlainString()));
+    }
+
+    public ColoredString patternToUpper (MatchCursor m) {
+        // Copies share arrays, so don't change this one in place.
+        char[] tempText = null;
 
         while (m.find()) {
+            if (tempText == null) tempText = plain.clone();
             for (int i = m.start() ; i < m.end() ; i++ ) {
-                plain[i] = Character.toUpperCase(plain[i]);
+                tempText[i] = Character.toUpperCase(tempText[i]);
             }
         }
-        return new ColoredString(this);
+        if (tempText == null) return this;
+        return new ColoredString(tempText, codePositions, codes, formatPrefix);
     }    
 
-    /**
-     * Returns a concatenation of two strings, a + b.  If a or b are null, they
-     * are converted to an empty string.  If both a and b are null, returns null.
-     * @param a First string to concatenate
-     * @param b Second string to concatenate
-     * @return Concatenation of a and b, or null if they are both null.
-     */
-    private String mergeCodes(String a, String b) {
-        String result = (a == null)?"":a;
-        if (b != null) {
-            result += b;
-        }
-        return (result.isEmpty())?null:result;
-
-    }
-
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof ColoredString ) {
@@ -283,4 +356,81 @@ public final class ColoredString implements CharSequence {
             return getColoredString().equals(obj);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A list of replacements to make in a ColoredString.  See
+     * {@link ColoredString#applyEdits(EditList)}
+     */
+    public static final class EditList {
+        private int[] starts = new int[4];
+        private int[] ends = new int[4];
+        private ColoredString[] replacements = new ColoredString[4];
+        private int size;
+
+        /**
+         * Replace the plain text from start to end (exclusive).  Edits must
+         * be added in order, and must not overlap.
+         *
+         * @return this EditList
+         */
+        public EditList add(int start, int end, ColoredString replacement) {
+            if (start > end || (size > 0 && start < ends[size - 1])) {
+                throw new IllegalArgumentException("Edits must be in order, and must not overlap.");
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                replacements = Arrays.copyOf(replacements, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            replacements[size] = replacement;
+            size++;
+            return this;
+        }
+
+        public EditList add(int start, int end, String replacement) {
+            return add(start, end, new ColoredString(replacement));
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Codes, in order of position.  Codes added at the same position are
+     * joined together, eg: &1 then &k becomes &1&k.
+     */
+    private static final class CodeList {
+        private int[] positions = NO_POSITIONS;
+        private String[] codes = NO_CODES;
+        private int size;
+
+        void add(int position, String code) {
+            if (size > 0 && positions[size - 1] == position) {
+                codes[size - 1] += code;
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(4, size * 2));
+                codes = Arrays.copyOf(codes, positions.length);
+            }
+            positions[size] = position;
+            codes[size] = code;
+            size++;
+        }
+
+        int[] positions() {
+            return (size == 0) ? NO_POSITIONS : Arrays.copyOf(positions, size);
+        }
+
+        String[] codes() {
+            if (size == 0) return NO_CODES;
+            String[] result = new String[size];
+            // There are only a few different codes, so share them.
+            for (int i = 0; i < size; i++) result[i] = codes[i].intern();
+            return result;
+        }
+    }
+}
@@ -20,34 +20,52 @@ package com.pwn9.PwnFilter.util;
 /* NOTE: The goal here is to create a matcher that won't run forever.
  Here's how this works:
  1. The TimeoutRegexCharSequence has a timeout set in it of the system time + some interval.
- 2. On every charAt access, we check to see if we're past that time.
+ 2. Every charAt access is counted as a step.  Reading the clock is much more expensive
+ than the regex step itself, so we only check if we're past that time every CHECK_INTERVAL steps.
  3. If so, then throw an exception, which will halt the regex processing, and notify
  4. the caller.  In PwnFilter, we can then check for this exception, disable the rule, and log the offending regex and
  string.
+ The sequence can be reset() and reused for the next match, so we don't need a new one for
+ every rule.
 */
 
 public class LimitedRegexCharSequence implements CharSequence {
 
-    private final CharSequence inner;
+    // Steps between clock checks.  Must be a power of 2.
+    private static final int CHECK_INTERVAL = 4096;
 
-    private final int timeoutMillis;
+    private CharSequence inner;
 
-    private final long timeoutTime;
+    private int timeoutMillis;
+
+    private long timeoutTime;
 
     private long accessCount;
 
     public LimitedRegexCharSequence(CharSequence inner, int timeoutMillis)  {
         super();
+        reset(inner, timeoutMillis);
+    }
+
+    /**
+     * Wrap a new string, and restart the timer.
+     *
+     * @param inner The text to wrap
+     * @param timeoutMillis How long the match may take
+     * @return this
+     */
+    public LimitedRegexCharSequence reset(CharSequence inner, int timeoutMillis) {
         this.inner = inner;
         this.timeoutMillis = timeoutMillis;
         timeoutTime = System.currentTimeMillis() + timeoutMillis;
         accessCount = 0;
+        return this;
     }
 
     public char charAt(int index) {
-        accessCount++ ;
-        if (System.currentTimeMillis() > timeoutTime) {
-            throw new RuntimeException("Timeout occurred after " + timeoutMillis + "ms");
+        if ((++accessCount & (CHECK_INTERVAL - 1)) == 0 && System.currentTimeMillis() > timeoutTime) {
+            throw new RegexTimeoutException("Timeout occurred after " + timeoutMillis + "ms (" +
+                    accessCount + " steps)");
         }
         return inner.charAt(index);
     }
@@ -57,7 +75,8 @@ public class LimitedRegexCharSequence implements CharSequence {
     }
 
     public CharSequence subSequence(int start, int end) {
-        return new LimitedRegexCharSequence(inner.subSequence(start, end), timeoutMillis);
+        // Only used to fetch matched groups, once the match is already done.
+        return inner.subSequence(start, end);
     }
 
     public long getAccessCount() {
@@ -0,0 +1,219 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import com.pwn9.PwnFilter.rules.Rule;
+
+import java.util.List;
+
+/**
+ * A log message which hasn't been written out yet.  It holds the things the
+ * message is about, and is only turned into text if it's actually going to be
+ * logged.  Most rule log messages never are (the rule log level is usually
+ * filtered out, and debug is usually off), so most never need to be built.
+ * <p/>
+ * Everything a LogEvent refers to must be immutable (Strings, ColoredStrings,
+ * Rules, Conditions), since it can be formatted long after it was created.
+ * <p/>
+ * A rule that is stopped by a condition before its regex is run (see
+ * Rule#failedGuard) would still have logged the match and the condition if the
+ * regex matched.  Its log messages depend on a {@link LazyMatch}, and are
+ * left out if the regex turns out not to match.  The regex is only run if
+ * the messages are going to be written out.
+ */
+public final class LogEvent {
+
+    private enum Kind {
+        TEXT,      // a
+        MATCH,     // |listener| MATCH (rule id) <player> message
+        REJECTED,  // CONDITION not met <condition> message
+        SENT,      // |listener| SENT <player> message
+        CANCELLED, // <player> Original message cancelled.
+        DEBUG      // a + b + c + d, or a + b[start, end)
+    }
+
+    private final Kind kind;
+    private final Object a, b, c, d;
+    private final int start, end;
+    private final List<LazyMatch> onlyIf; // Only logged if one of these matches, or null
+    private String text; // Once it has been formatted
+
+    private LogEvent(Kind kind, Object a, Object b, Object c, Object d, int start, int end,
+                     List<LazyMatch> onlyIf) {
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.start = start;
+        this.end = end;
+        this.onlyIf = onlyIf;
+    }
+
+    private LogEvent(Kind kind, Object a, Object b, Object c, Object d, int start, int end) {
+        this(kind, a, b, c, d, start, end, null);
+    }
+
+    private LogEvent(Kind kind, Object a, Object b, Object c, Object d) {
+        this(kind, a, b, c, d, -1, -1);
+    }
+
+    /**
+     * A message that has already been built.
+     */
+    public static LogEvent text(String message) {
+        LogEvent event = new LogEvent(Kind.TEXT, message, null, null, null);
+        event.text = message;
+        return event;
+    }
+
+    /**
+     * A rule matched the message.
+     */
+    public static LogEvent match(String listener, Rule rule, String player, ColoredString message) {
+        return new LogEvent(Kind.MATCH, listener, rule, player, message);
+    }
+
+    /**
+     * A rule matched, but one of its conditions wasn't met.
+     *
+     * @param condition The condition, its toString() describes it.
+     */
+    public static LogEvent rejected(Object condition, ColoredString message) {
+        return new LogEvent(Kind.REJECTED, condition, message, null, null);
+    }
+
+    /**
+     * The (possibly changed) message was sent on.
+     */
+    public static LogEvent sent(String listener, String player, ColoredString message) {
+        return new LogEvent(Kind.SENT, listener, player, message, null);
+    }
+
+    /**
+     * The message was cancelled.
+     */
+    public static LogEvent cancelled(String player) {
+        return new LogEvent(Kind.CANCELLED, player, null, null, null);
+    }
+
+    /**
+     * A label and a value, eg: "Match String: " and the text that matched.
+     */
+    public static LogEvent debug(String label, Object value) {
+        return new LogEvent(Kind.DEBUG, label, value, null, null);
+    }
+
+    /**
+     * Two labels and values, eg: "Applying '", chain name, "' to message: ",
+     * and the message.
+     */
+    public static LogEvent debug(String label, Object value, String label2, Object value2) {
+        return new LogEvent(Kind.DEBUG, label, value, label2, value2);
+    }
+
+    /**
+     * A label and part of some text.  The text must not change before this
+     * is logged.
+     */
+    public static LogEvent debug(String label, CharSequence value, int start, int end) {
+        return new LogEvent(Kind.DEBUG, label, value, null, null, start, end);
+    }
+
+    /**
+     * The same message, but only logged if one of the rules would have
+     * matched.
+     *
+     * @param matches Rules which were stopped before they were tested.
+     */
+    public static LogEvent onlyIf(LogEvent event, List<LazyMatch> matches) {
+        return new LogEvent(event.kind, event.a, event.b, event.c, event.d, event.start, event.end, matches);
+    }
+
+    /**
+     * @return false if this message depends on rules which turned out not to
+     * match, and mustn't be logged.  Runs their regexes, the first time.
+     */
+    public boolean isLogged() {
+        if (onlyIf == null) return true;
+        for (LazyMatch match : onlyIf) {
+            if (match.matched()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The message.
+     */
+    @Override
+    public String toString() {
+        if (text == null) text = format();
+        return text;
+    }
+
+    private String format() {
+        StringBuilder sb = new StringBuilder(64);
+        switch (kind) {
+            case MATCH:
+                String id = ((Rule) b).getId();
+                sb.append('|').append(a).append("| MATCH ");
+                if (!id.isEmpty()) sb.append('(').append(id).append(')');
+                sb.append(" <").append(c).append("> ").append(((ColoredString) d).getPlainString());
+                break;
+            case REJECTED:
+                sb.append("CONDITION not met <").append(a).append("> ").append(b);
+                break;
+            case SENT:
+                sb.append('|').append(a).append("| SENT <").append(b).append("> ")
+                        .append(((ColoredString) c).getPlainString());
+                break;
+            case CANCELLED:
+                sb.append('<').append(a).append("> Original message cancelled.");
+                break;
+            case DEBUG:
+                sb.append(a);
+                if (start >= 0) {
+                    sb.append(((CharSequence) b).subSequence(start, end));
+                } else {
+                    sb.append(b);
+                    if (c != null) sb.append(c).append(d);
+                }
+                break;
+            default:
+                sb.append(a);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Whether a rule's regex matches a message, worked out the first time
+     * it's asked.
+     */
+    public static final class LazyMatch {
+        private final Rule rule;
+        private final ColoredString message;
+        private Boolean matched;
+
+        public LazyMatch(Rule rule, ColoredString message) {
+            this.rule = rule;
+            this.message = message;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        public boolean matched() {
+            if (matched == null) matched = rule.matches(message);
+            return matched;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import com.pwn9.PwnFilter.rules.Rule;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+/**
+ * Keeps a spam raid from flooding the log.  Within each window (eg: 10s), a
+ * message is logged in full while both its rule has had fewer than
+ * ruleLimit messages, and its player fewer than playerLimit.  Once either
+ * limit is reached, only one in every sampleRate is still logged in full,
+ * and the rest are counted.  At the end of the window, each rule that had
+ * messages left out gets a summary line:
+ * <p/>
+ * rule swear-12 matched 842 times for 37 players in the last 10s (790 not logged)
+ * <p/>
+ * Counting doesn't take a lock, since it happens for every logged message,
+ * and those come thick and fast in exactly the case this is for.
+ */
+public final class LogFloodControl {
+
+    private static volatile int windowMillis = 10000;
+    private static volatile int ruleLimit = 20; // 0 turns flood control off
+    private static volatile int playerLimit = 10;
+    private static volatile int sampleRate = 100;
+
+    private static final class Counts {
+        final AtomicInteger matches = new AtomicInteger();
+        final AtomicInteger over = new AtomicInteger(); // Matches over the limit
+        final AtomicInteger suppressed = new AtomicInteger();
+        final Set<String> players = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        // Highest level of the messages that weren't logged
+        final AtomicReference<Level> level = new AtomicReference<Level>();
+    }
+
+    private static final class Window {
+        final long start;
+        final ConcurrentMap<Rule, Counts> rules = new ConcurrentHashMap<Rule, Counts>();
+        final ConcurrentMap<String, AtomicInteger> players = new ConcurrentHashMap<String, AtomicInteger>();
+
+        Window(long start) {
+            this.start = start;
+        }
+    }
+
+    private static final AtomicReference<Window> window =
+            new AtomicReference<Window>(new Window(System.currentTimeMillis()));
+
+    private LogFloodControl() {
+    }
+
+    /**
+     * @param windowSeconds Length of each window, in seconds.
+     * @param rulePerWindow Messages per rule to log in full.  0 to log everything.
+     * @param playerPerWindow Messages per player to log in full.
+     * @param sample After the limit, still log one in every sample messages.  0 for none.
+     */
+    public static void configure(int windowSeconds, int rulePerWindow, int playerPerWindow, int sample) {
+        windowMillis = Math.max(1, windowSeconds) * 1000;
+        ruleLimit = Math.max(0, rulePerWindow);
+        playerLimit = Math.max(1, playerPerWindow);
+        sampleRate = Math.max(0, sample);
+    }
+
+    /**
+     * Count a message for the log, and decide whether it should be logged in
+     * full.  Only call this for messages that would otherwise be logged.
+     *
+     * @param rule The rule that matched.
+     * @param player The player who sent the message.
+     * @param level The level the message would be logged at.
+     * @return true if the message should be logged.
+     */
+    public static boolean allow(Rule rule, String player, Level level) {
+        if (ruleLimit == 0 || rule == null) return true;
+        Window w = current(System.currentTimeMillis());
+
+        Counts counts = w.rules.get(rule);
+        if (counts == null) {
+            Counts added = new Counts();
+            counts = w.rules.putIfAbsent(rule, added);
+            if (counts == null) counts = added;
+        }
+        int matches = counts.matches.incrementAndGet();
+        counts.players.add(player);
+        AtomicInteger playerCount = w.players.get(player);
+        if (playerCount == null) {
+            AtomicInteger added = new AtomicInteger();
+            playerCount = w.players.putIfAbsent(player, added);
+            if (playerCount == null) playerCount = added;
+        }
+        int count = playerCount.incrementAndGet();
+
+        // Logged in full only while neither the rule nor the player is over.
+        if (matches <= ruleLimit && count <= playerLimit) return true;
+        int rate = sampleRate;
+        if (rate > 0 && counts.over.incrementAndGet() % rate == 0) return true; // Keep some detail
+
+        // The level goes first, so a summary never has a count without one.
+        Level highest;
+        do {
+            highest = counts.level.get();
+            if (highest != null && highest.intValue() >= level.intValue()) break;
+        } while (!counts.level.compareAndSet(highest, level));
+        counts.suppressed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Write out the summaries for the last window, if it has ended.  Called
+     * regularly, so the summaries aren't held back when the spam stops.
+     */
+    public static void flush() {
+        current(System.currentTimeMillis());
+    }
+
+    /**
+     * Start a new window, if the current one has ended.  Whichever thread
+     * starts it logs the summaries for the old one.  (A message counted by
+     * another thread just as the window ends may miss the summary.)
+     *
+     * @return The current window.
+     */
+    private static Window current(long now) {
+        while (true) {
+            Window w = window.get();
+            if (now - w.start < windowMillis) return w;
+            Window next = new Window(now);
+            if (window.compareAndSet(w, next)) {
+                logSummaries(w, now - w.start);
+                return next;
+            }
+        }
+    }
+
+    private static void logSummaries(Window w, long elapsed) {
+        for (Map.Entry<Rule, Counts> entry : w.rules.entrySet()) {
+            Counts counts = entry.getValue();
+            int suppressed = counts.suppressed.get();
+            if (suppressed == 0) continue;
+            Level level = counts.level.get();
+            Rule rule = entry.getKey();
+            String name = rule.getId().isEmpty() ? rule.toString() : rule.getId();
+            LogManager.logger.log(level == null ? Level.INFO : level, "rule " + name + " matched " +
+                    counts.matches.get() + " times for " + counts.players.size() + " players in the last " +
+                    (elapsed / 1000) + "s (" + suppressed + " not logged)");
+        }
+    }
+}
@@ -10,12 +10,13 @@
 
 package com.pwn9.PwnFilter.util;
 
+import com.pwn9.PwnFilter.rules.Rule;
+
 import java.io.File;
 import java.io.IOException;
-import java.util.logging.FileHandler;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 /**
  * Unified Logging interface for PwnFilter-related messages
@@ -30,7 +31,14 @@ public class LogManager {
     public static Logger logger;
     private static File logFolder;
 
-    private FileHandler logfileHandler;
+    private AuditLogHandler logfileHandler;
+
+    // Log file settings
+    private static int logBufferSize = 8192;
+    private static AuditLogHandler.FullPolicy logFullPolicy = AuditLogHandler.FullPolicy.drop;
+    private static long logMaxSize = 10L * 1024 * 1024;
+    private static boolean logDaily = true;
+    private static boolean logCompress = true;
 
     private static LogManager _instance;
 
@@ -49,6 +57,30 @@ public class LogManager {
         }
     }
 
+    /**
+     * Set up the log file.  Only the buffer size needs a restart to change.
+     *
+     * @param bufferSize Log messages that can be waiting to be written.
+     * @param whenFull "drop" or "block", see {@link AuditLogHandler.FullPolicy}
+     * @param maxSizeMB Start a new log file when it gets this big.  0 for no limit.
+     * @param daily Start a new log file every day.
+     * @param compress gzip old log files.
+     */
+    public static void setLogFileOptions(int bufferSize, String whenFull, int maxSizeMB, boolean daily, boolean compress) {
+        logBufferSize = Math.max(16, bufferSize);
+        try {
+            logFullPolicy = AuditLogHandler.FullPolicy.valueOf(whenFull.toLowerCase());
+        } catch (IllegalArgumentException e) {
+            logFullPolicy = AuditLogHandler.FullPolicy.drop;
+        }
+        logMaxSize = Math.max(0, maxSizeMB) * 1024L * 1024L;
+        logDaily = daily;
+        logCompress = compress;
+        if (_instance != null && _instance.logfileHandler != null) {
+            _instance.logfileHandler.configure(logFullPolicy, logMaxSize, logDaily, logCompress);
+        }
+    }
+
     public static void setRuleLogLevel(String level) {
         try {
             LogManager.ruleLogLevel = Level.parse(level.toUpperCase());
@@ -58,20 +90,57 @@ public class LogManager {
     }
 
     public void debugLow(String message) {
-        if (debugMode.compareTo(DebugModes.low) >= 0) {
-            logger.finer(message);
-        }
+        debug(DebugModes.low, message);
+    }
+
+    public void debugLow(LogEvent event) {
+        debug(DebugModes.low, event);
     }
 
     public void debugMedium(String message) {
-        if (debugMode.compareTo(DebugModes.medium) >= 0) {
-            logger.finer(message);
-        }
+        debug(DebugModes.medium, message);
+    }
+
+    public void debugMedium(LogEvent event) {
+        debug(DebugModes.medium, event);
     }
 
     public void debugHigh(String message) {
-        if (debugMode.compareTo(DebugModes.high) >= 0) {
-            logger.finer(message);
+        debug(DebugModes.high, message);
+    }
+
+    public void debugHigh(LogEvent event) {
+        debug(DebugModes.high, event);
+    }
+
+    // A LogEvent is only formatted if it will actually be logged.
+    private void debug(DebugModes mode, Object message) {
+        if (debugMode.compareTo(mode) >= 0 && logger.isLoggable(Level.FINER)) {
+            logger.finer(message.toString());
+        }
+    }
+
+    /**
+     * Write out the log messages from a rule chain, unless there have been too
+     * many for this rule or player lately (see {@link LogFloodControl}).
+     *
+     * @param level The level to log them at.
+     * @param events The messages.
+     * @param rule The rule that matched (may be null).
+     * @param player The player who sent the message.
+     */
+    public static void logEvents(Level level, List<LogEvent> events, Rule rule, String player) {
+        if (events.isEmpty() || !logger.isLoggable(level)) return;
+        boolean any = false;
+        for (LogEvent event : events) {
+            if (event.isLogged()) {
+                any = true;
+                break;
+            }
+        }
+        if (!any || !LogFloodControl.allow(rule, player, level)) return;
+        for (LogEvent event : events) {
+            if (event.isLogged()) logger.log(level, event.toString());
         }
     }
 
@@ -94,8 +163,9 @@ public class LogManager {
 
     public void stop() {
         if (logfileHandler != null) {
-            logfileHandler.close();
+            // Stop sending it records before it's closed.
             LogManager.logger.removeHandler(logfileHandler);
+            logfileHandler.close();
             logfileHandler = null;
         }
     }
@@ -112,9 +182,9 @@ public class LogManager {
             try {
                 // For now, one logfile, like the old way.
                 String fileName =  new File(logFolder, "pwnfilter.log").toString();
-                logfileHandler = new FileHandler(fileName, true);
-                SimpleFormatter f = new PwnFormatter();
-                logfileHandler.setFormatter(f);
+                // Written by a background thread, so players never wait on the disk.
+                logfileHandler = new AuditLogHandler(new File(fileName), logBufferSize, logFullPolicy,
+                        logMaxSize, logDaily, logCompress);
                 logfileHandler.setLevel(Level.FINEST); // Catch all log messages
                 LogManager.logger.addHandler(logfileHandler);
                 LogManager.logger.info("Now logging to " + fileName );
@@ -0,0 +1,194 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import com.pwn9.PwnFilter.FilterState;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message (or command) with variables in it, eg: "%player% said: %string%".
+ * It is parsed once, when the action is loaded, so filling it in for an
+ * event is just a matter of appending the pieces.
+ * <p/>
+ * Variables:
+ * <ul>
+ * <li>%world%, %player%, %event%: Where the event came from</li>
+ * <li>%string%, %rawstring%: The message, as modified so far / as sent</li>
+ * <li>%points%: The player's points</li>
+ * <li>%ruleid%, %ruledescr%: The rule that matched</li>
+ * <li>${0} - ${9}: The text the rule matched, and its capture groups</li>
+ * </ul>
+ * A $ on its own (eg: "Pay $50") is just text, so existing messages aren't
+ * changed.  Variable values are inserted as they are: a player can't sneak a variable
+ * into a message by typing one.
+ */
+public final class MessageTemplate {
+
+    private enum Var {
+        world, player, string, rawstring, event, points, ruleid, ruledescr
+    }
+
+    // Old style variables.  Only recognized on a line on their own.
+    private static final String[] DEPRECATED = {"&player", "&string", "&rawstring", "&event", "&ruleid", "&ruledescr"};
+
+    // DecimalFormat isn't thread safe.
+    private static final ThreadLocal<DecimalFormat> pointsFormat = new ThreadLocal<DecimalFormat>() {
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("0.00##");
+        }
+    };
+
+    private final String source;
+    private final String[] literals; // Text before each variable, and after the last one
+    private final Var[] vars;        // Each variable, or null for a capture group
+    private final int[] groups;      // Capture group number, for $n
+
+    private MessageTemplate(String source, String[] literals, Var[] vars, int[] groups) {
+        this.source = source;
+        this.literals = literals;
+        this.vars = vars;
+        this.groups = groups;
+    }
+
+    /**
+     * Parse a message.  Anything that isn't a variable is left as it is.
+     *
+     * @param line The message
+     * @return The template.
+     */
+    public static MessageTemplate compile(String line) {
+        for (String old : DEPRECATED) {
+            if (line.equals(old)) {
+                String replace = "%" + old.substring(1) + "%";
+                LogManager.logger.warning("The use of " + old + " is deprecated.  Please update your configuration to use " + replace + ".");
+                return new MessageTemplate(line, new String[]{"", ""},
+                        new Var[]{Var.valueOf(old.substring(1))}, new int[]{0});
+            }
+        }
+
+        List<String> literals = new ArrayList<String>();
+        List<Var> vars = new ArrayList<Var>();
+        List<Integer> groups = new ArrayList<Integer>();
+        StringBuilder literal = new StringBuilder();
+
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '%') {
+                int end = line.indexOf('%', i + 1);
+                Var var = (end < 0) ? null : lookup(line.substring(i + 1, end));
+                if (var != null) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    vars.add(var);
+                    groups.add(0);
+                    i = end + 1;
+                    continue;
+                }
+            } else if (c == '$' && line.startsWith("{", i + 1) && i + 3 < line.length() &&
+                    Character.isDigit(line.charAt(i + 2)) && line.charAt(i + 3) == '}') {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                vars.add(null);
+                groups.add(line.charAt(i + 2) - '0');
+                i += 4;
+                continue;
+            }
+            literal.append(c);
+            i++;
+        }
+        literals.add(literal.toString());
+
+        int[] groupArray = new int[groups.size()];
+        for (int j = 0; j < groupArray.length; j++) groupArray[j] = groups.get(j);
+        return new MessageTemplate(line, literals.toArray(new String[literals.size()]),
+                vars.toArray(new Var[vars.size()]), groupArray);
+    }
+
+    private static Var lookup(String name) {
+        for (Var var : Var.values()) {
+            if (var.name().equals(name)) return var;
+        }
+        return null;
+    }
+
+    /**
+     * Fill in the variables for an event.
+     *
+     * @param state The event
+     * @return The message.
+     */
+    public String render(FilterState state) {
+        if (vars.length == 0) return literals[0];
+
+        StringBuilder sb = new StringBuilder(source.length() + 32);
+        for (int i = 0; i < vars.length; i++) {
+            sb.append(literals[i]);
+            if (vars[i] == null) {
+                appendGroup(sb, groups[i], state);
+            } else {
+                sb.append(value(vars[i], state));
+            }
+        }
+        sb.append(literals[vars.length]);
+        return sb.toString();
+    }
+
+    private static String value(Var var, FilterState state) {
+        switch (var) {
+            case world:
+                return orDash(state.playerWorldName);
+            case player:
+                return orDash(state.playerName);
+            case string:
+                return state.getModifiedMessage().getColoredString();
+            case rawstring:
+                return state.getOriginalMessage().getColoredString();
+            case event:
+                return orDash(state.getListenerName());
+            case points:
+                return PointManager.isEnabled() ?
+                        pointsFormat.get().format(PointManager.getInstance().getPlayerPoints(state.playerName)) : "-";
+            case ruleid:
+                return (state.rule != null) ? orDash(state.rule.getId()) : "-";
+            case ruledescr:
+                return (state.rule != null) ? orDash(state.rule.getDescription()) : "''";
+            default:
+                return "";
+        }
+    }
+
+    private static void appendGroup(StringBuilder sb, int group, FilterState state) {
+        String[] matched = state.getMatchGroups();
+        if (matched == null || group >= matched.length) {
+            // No such group, so it probably wasn't meant as one.
+            sb.append("${").append(group).append('}');
+        } else if (matched[group] != null) {
+            sb.append(matched[group]);
+        }
+    }
+
+    private static String orDash(String s) {
+        return (s != null) ? s : "-";
+    }
+
+    /**
+     * @return The message this template was parsed from.
+     */
+    @Override
+    public String toString() {
+        return source;
+    }
+}
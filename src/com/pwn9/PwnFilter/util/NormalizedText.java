@@ -0,0 +1,250 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * A normalized view of a message, for rules which would otherwise have to
+ * spell out every way of disguising a word in their regex.  The message is:
+ * <ul>
+ * <li>NFKC/NFKD normalized, with accents removed (fullwidth, script and
+ * accented letters become plain ones)</li>
+ * <li>stripped of zero-width and other invisible formatting chars</li>
+ * <li>lower-cased, with look-alike Cyrillic / Greek letters and leetspeak
+ * (4 3 1 0 5 7 @ $ ...) folded to the latin letter they stand for</li>
+ * <li>joined up where single letters are spaced out (f.u.c.k, f u c k)</li>
+ * <li>collapsed where a char is repeated (fuuuuck -> fuck, book -> bok)</li>
+ * </ul>
+ * Each char of the normalized text keeps the range of the original text it
+ * came from, so a match on the normalized text can be mapped back onto the
+ * original message (eg: to replace it).
+ */
+public final class NormalizedText {
+
+    // Single letters spaced out with one of these are joined up.
+    private static final String SEPARATORS = " ._-*~,";
+    // At least this many spaced out letters.
+    private static final int MIN_SPACED_LETTERS = 3;
+
+    // Covers every char, so a mapping can't be left out (eg: \u20AC, \u0501).
+    private static final char[] FOLD = new char[Character.MAX_VALUE + 1];
+    private static final String[] ASCII = new String[0x80];
+
+    static {
+        for (char c = 0; c < ASCII.length; c++) ASCII[c] = String.valueOf(c);
+        for (int c = 0; c < FOLD.length; c++) FOLD[c] = (char) c;
+        fold("4@", 'a');
+        fold("8", 'b');
+        fold("3\u20AC", 'e');
+        fold("9", 'g');
+        fold("1", 'i');
+        fold("0", 'o');
+        fold("5$", 's');
+        fold("7", 't');
+        // Cyrillic
+        fold("\u0430", 'a');
+        fold("\u0432", 'b');
+        fold("\u0441", 'c');
+        fold("\u0501", 'd');
+        fold("\u0435\u0451", 'e');
+        fold("\u04BB\u043D", 'h');
+        fold("\u0456\u0457", 'i');
+        fold("\u0458", 'j');
+        fold("\u043A", 'k');
+        fold("\u043C", 'm');
+        fold("\u043E", 'o');
+        fold("\u0440", 'p');
+        fold("\u0455", 's');
+        fold("\u0442", 't');
+        fold("\u0443", 'y');
+        fold("\u0445", 'x');
+        // Greek
+        fold("\u03B1", 'a');
+        fold("\u03B2", 'b');
+        fold("\u03B5", 'e');
+        fold("\u03B7", 'n');
+        fold("\u03B9", 'i');
+        fold("\u03BA", 'k');
+        fold("\u03BD", 'v');
+        fold("\u03BF", 'o');
+        fold("\u03C1", 'p');
+        fold("\u03C4", 't');
+        fold("\u03C5", 'u');
+        fold("\u03C7", 'x');
+    }
+
+    private static void fold(String chars, char to) {
+        for (int i = 0; i < chars.length(); i++) {
+            FOLD[chars.charAt(i)] = to;
+        }
+    }
+
+    private final String text;
+    private final int[] starts; // Start of the original range for each char
+    private final int[] ends;   // End of the original range for each char
+    private final int originalLength;
+
+    private NormalizedText(String text, int[] starts, int[] ends, int originalLength) {
+        this.text = text;
+        this.starts = starts;
+        this.ends = ends;
+        this.originalLength = originalLength;
+    }
+
+    /**
+     * @param original Plain text (no colour codes) to normalize
+     */
+    public static NormalizedText of(CharSequence original) {
+        int len = original.length();
+        StringBuilder sb = new StringBuilder(len);
+        int[] starts = new int[len + 4];
+        int[] ends = new int[len + 4];
+        int n = 0;
+
+        int i = 0;
+        while (i < len) {
+            // A char, and any combining marks after it.
+            int start = i;
+            i += Character.charCount(Character.codePointAt(original, i));
+            while (i < len && original.charAt(i) >= 0x300 && isMark(original.charAt(i))) i++;
+
+            String cluster;
+            if (i - start == 1 && original.charAt(start) < 0x80) {
+                // Plain ascii, nothing to decompose.
+                cluster = ASCII[original.charAt(start)];
+            } else {
+                cluster = original.subSequence(start, i).toString();
+                cluster = Normalizer.normalize(Normalizer.normalize(cluster, Normalizer.Form.NFKC), Normalizer.Form.NFKD);
+            }
+            for (int j = 0; j < cluster.length(); j++) {
+                char c = cluster.charAt(j);
+                if (c >= 0x80 && (isMark(c) || isInvisible(c))) continue;
+                c = Character.toLowerCase(c);
+                c = FOLD[c];
+                if (n == starts.length) {
+                    starts = Arrays.copyOf(starts, n * 2);
+                    ends = Arrays.copyOf(ends, n * 2);
+                }
+                sb.append(c);
+                starts[n] = start;
+                ends[n] = i;
+                n++;
+            }
+        }
+
+        n = joinSpacedLetters(sb, starts, ends, n);
+        n = collapseRepeats(sb, starts, ends, n);
+        return new NormalizedText(sb.toString(), Arrays.copyOf(starts, n), Arrays.copyOf(ends, n), len);
+    }
+
+    private static boolean isMark(char c) {
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK ||
+                type == Character.COMBINING_SPACING_MARK;
+    }
+
+    private static boolean isInvisible(char c) {
+        return Character.getType(c) == Character.FORMAT || c == '\u115F' ||
+                c == '\u1160' || c == '\u3164' || c == '\uFFA0';
+    }
+
+    private static boolean isSingle(StringBuilder sb, int i, int n) {
+        return Character.isLetterOrDigit(sb.charAt(i)) &&
+                (i == 0 || !Character.isLetterOrDigit(sb.charAt(i - 1))) &&
+                (i + 1 == n || !Character.isLetterOrDigit(sb.charAt(i + 1)));
+    }
+
+    /**
+     * Remove the separators from runs like "f.u.c.k".
+     *
+     * @return The new length.
+     */
+    private static int joinSpacedLetters(StringBuilder sb, int[] starts, int[] ends, int n) {
+        boolean[] drop = null;
+        int i = 0;
+        while (i < n) {
+            if (!isSingle(sb, i, n)) {
+                i++;
+                continue;
+            }
+            int letters = 1, end = i;
+            while (end + 2 < n && SEPARATORS.indexOf(sb.charAt(end + 1)) >= 0 && isSingle(sb, end + 2, n)) {
+                end += 2;
+                letters++;
+            }
+            if (letters >= MIN_SPACED_LETTERS) {
+                if (drop == null) drop = new boolean[n];
+                for (int j = i + 1; j < end; j += 2) drop[j] = true;
+            }
+            i = end + 1;
+        }
+        if (drop == null) return n;
+
+        int out = 0;
+        for (int j = 0; j < n; j++) {
+            if (drop[j]) continue;
+            sb.setCharAt(out, sb.charAt(j));
+            starts[out] = starts[j];
+            ends[out] = ends[j];
+            out++;
+        }
+        sb.setLength(out);
+        return out;
+    }
+
+    /**
+     * Merge runs of the same char into one.
+     *
+     * @return The new length.
+     */
+    private static int collapseRepeats(StringBuilder sb, int[] starts, int[] ends, int n) {
+        if (n == 0) return 0;
+        int out = 1;
+        for (int j = 1; j < n; j++) {
+            if (sb.charAt(j) == sb.charAt(out - 1)) {
+                ends[out - 1] = ends[j];
+                continue;
+            }
+            sb.setCharAt(out, sb.charAt(j));
+            starts[out] = starts[j];
+            ends[out] = ends[j];
+            out++;
+        }
+        sb.setLength(out);
+        return out;
+    }
+
+    /**
+     * @return The normalized text.
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * @param i Index into the normalized text (may be its length).
+     * @return Where the text from index i onwards starts in the original.
+     */
+    public int originalStart(int i) {
+        return (i < starts.length) ? starts[i] : originalLength;
+    }
+
+    /**
+     * @param i Index into the normalized text (may be 0).
+     * @return Where the text up to index i (exclusive) ends in the original.
+     */
+    public int originalEnd(int i) {
+        return (i > 0) ? ends[i - 1] : 0;
+    }
+}
@@ -11,9 +11,8 @@
 package com.pwn9.PwnFilter.util;
 
 import com.pwn9.PwnFilter.FilterState;
+import com.pwn9.PwnFilter.util.regex.CaseFolding;
 
-import java.text.DecimalFormat;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -24,7 +23,6 @@ public class Patterns {
     /**
      * Class Utility Methods
      */
-    static final DecimalFormat df = new DecimalFormat("0.00##");
 
     public static java.util.regex.Pattern compilePattern(String re) {
         Pattern pattern = null;
@@ -44,35 +42,35 @@ public class Patterns {
         return pattern;
     }
 
-    public static String replaceVars(String line, FilterState state) {
-        Pattern p = Pattern.compile("(&player|&string|&rawstring|&event|&ruleid|&ruledescr)");
-        Matcher m = p.matcher(line);
-
-
-        if (m.matches()) {
-            String group = m.group(1);
-            String replace = "%" + group.substring(1) + "%";
-            LogManager.logger.warning("The use of " + m.group(1) + " is deprecated.  Please update your configuration to use " + replace + ".");
-            line = line.replaceAll("&world", wrapReplacement(state.playerWorldName)).
-                    replaceAll("&player", wrapReplacement(state.playerName)).
-                    replaceAll("&string", wrapReplacement(state.getModifiedMessage().getColoredString())).
-                    replaceAll("&rawstring", wrapReplacement(state.getOriginalMessage().getColoredString())).
-                    replaceAll("&event", wrapReplacement(state.getListenerName())).
-                    replaceAll("&ruleid", (state.rule != null)?wrapReplacement(state.rule.getId()):"-").
-                    replaceAll("&ruledescr", (state.rule !=null)?wrapReplacement(state.rule.getDescription()):"''");
+    /**
+     * Compile a case-insensitive regex as a case-sensitive one which matches
+     * text folded with {@link CaseFolding#foldText(String)}, if that can be
+     * done without changing what it matches.  Otherwise, compile it
+     * case-insensitive, like {@link #compilePattern(String)}.
+     *
+     * @param re The regex
+     * @return The compiled pattern, or null if it is invalid.  Check for
+     * Pattern.CASE_INSENSITIVE in its flags to see which it is.
+     */
+    public static java.util.regex.Pattern compileFoldedPattern(String re) {
+        String folded = CaseFolding.foldRegex(re);
+        if (folded != null) {
+            try {
+                Pattern pattern = Pattern.compile(folded);
+                LogManager.getInstance().debugMedium("Successfully compiled regex: " + re + " (folded: " + folded + ")");
+                return pattern;
+            } catch (PatternSyntaxException e) {
+                // Report the error against the original regex.
+            }
         }
-        line = line.replaceAll("%world%", wrapReplacement(state.playerWorldName)).
-                replaceAll("%player%", wrapReplacement(state.playerName)).
-                replaceAll("%string%", wrapReplacement(state.getModifiedMessage().getColoredString())).
-                replaceAll("%rawstring%", wrapReplacement(state.getOriginalMessage().getColoredString())).
-                replaceAll("%event%", wrapReplacement(state.getListenerName())).
-                replaceAll("%points%",(PointManager.isEnabled())?(df.format(PointManager.getInstance().getPlayerPoints(state.playerName))):"-").
-                replaceAll("%ruleid%", (state.rule != null) ? wrapReplacement(state.rule.getId()) : "-").
-                replaceAll("%ruledescr%", (state.rule != null) ? wrapReplacement(state.rule.getDescription()) : "''");
-        return line;
+        return compilePattern(re);
     }
 
-    private static String wrapReplacement(String s) {
-        return (s != null)?Matcher.quoteReplacement(s):"-";
+    /**
+     * Fill in the variables in a message.  Actions parse their messages once
+     * with {@link MessageTemplate#compile(String)} instead.
+     */
+    public static String replaceVars(String line, FilterState state) {
+        return MessageTemplate.compile(line).render(state);
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size queue that any number of threads can add to, and one thread
+ * takes from.  Adding never blocks or takes a lock: if the buffer is full,
+ * offer() just says so.
+ * <p/>
+ * Each slot has a sequence number, which tells a producer whether the slot
+ * is free for its turn around the ring, and the consumer whether the slot
+ * has been filled yet.
+ */
+public final class RingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(); // Next position to add at
+    private long head; // Next position to take from.  Consumer thread only.
+
+    /**
+     * @param capacity Size of the buffer.  Rounded up to a power of 2.
+     */
+    public RingBuffer(int capacity) {
+        int size = (capacity <= 2) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Add an element.  Safe to call from any thread.
+     *
+     * @return false if the buffer is full.
+     */
+    public boolean offer(E e) {
+        while (true) {
+            long pos = tail.get();
+            int i = (int) (pos & mask);
+            long diff = sequences.get(i) - pos;
+            if (diff < 0) return false; // Not taken yet from the last time around
+            if (diff == 0 && tail.compareAndSet(pos, pos + 1)) {
+                slots.set(i, e);
+                sequences.lazySet(i, pos + 1);
+                return true;
+            }
+            // Another producer got this position first, try the next one.
+        }
+    }
+
+    /**
+     * Take the oldest element.  Must only be called from one thread.
+     *
+     * @return The element, or null if the buffer is empty.
+     */
+    public E poll() {
+        int i = (int) (head & mask);
+        if (sequences.get(i) != head + 1) return null;
+        E e = slots.get(i);
+        slots.lazySet(i, null);
+        sequences.lazySet(i, head + mask + 1);
+        head++;
+        return e;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
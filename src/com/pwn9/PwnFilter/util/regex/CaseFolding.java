@@ -0,0 +1,221 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+/**
+ * Fold case once per message, instead of once per char per rule.
+ * <p/>
+ * Pattern.CASE_INSENSITIVE (without UNICODE_CASE) only folds ASCII letters.
+ * So a case-insensitive regex gives exactly the same matches on a message as
+ * a case-sensitive version of it, with every ASCII letter lower-cased, gives
+ * on the message with every ASCII letter lower-cased.  Lower-casing the
+ * message doesn't move anything, so match positions are the same too.
+ * <p/>
+ * Lower-casing a regex is only safe if we understand all of it: anything we
+ * don't (inline flags, \p{Upper}, \x41, ...) is left case-insensitive.
+ */
+public final class CaseFolding {
+
+    private CaseFolding() {
+    }
+
+    /**
+     * @return text, with ASCII letters lower-cased.
+     */
+    public static String foldText(String text) {
+        int i = 0;
+        while (i < text.length() && !isUpper(text.charAt(i))) i++;
+        if (i == text.length()) return text;
+
+        char[] chars = text.toCharArray();
+        for (; i < chars.length; i++) {
+            if (isUpper(chars[i])) chars[i] += 'a' - 'A';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Rewrite a case-insensitive regex as a case-sensitive one, which matches
+     * text folded by foldText() exactly the way the original matches the text.
+     *
+     * @param re A regex, to be compiled with CASE_INSENSITIVE.
+     * @return The folded regex, to be compiled without CASE_INSENSITIVE, or
+     * null if the regex can't safely be folded.
+     */
+    public static String foldRegex(String re) {
+        try {
+            StringBuilder out = new StringBuilder(re.length() + 8);
+            int i = 0;
+            while (i < re.length()) {
+                char c = re.charAt(i);
+                if (c == '\\') {
+                    i = escape(re, i, out, false);
+                } else if (c == '[') {
+                    i = charClass(re, i, out);
+                } else if (c == '(' && i + 1 < re.length() && re.charAt(i + 1) == '?') {
+                    i = group(re, i, out);
+                } else {
+                    out.append(lower(c));
+                    i++;
+                }
+                if (i < 0) return null;
+            }
+            return out.toString();
+        } catch (IndexOutOfBoundsException ex) {
+            return null; // Malformed, let Pattern complain about it.
+        }
+    }
+
+    private static boolean isUpper(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static char lower(char c) {
+        return isUpper(c) ? (char) (c + 'a' - 'A') : c;
+    }
+
+    /**
+     * Copy the start of a special group, eg: (?: (?= (?<name> etc.
+     *
+     * @return The index after it, or -1 if it isn't one we know.
+     */
+    private static int group(String re, int i, StringBuilder out) {
+        char c = re.charAt(i + 2);
+        if (c == ':' || c == '=' || c == '!' || c == '>') {
+            out.append(re, i, i + 3);
+            return i + 3;
+        }
+        if (c == '<') {
+            char d = re.charAt(i + 3);
+            if (d == '=' || d == '!') {
+                out.append(re, i, i + 4);
+                return i + 4;
+            }
+            // Named group, the name is case sensitive.
+            int end = re.indexOf('>', i);
+            if (end < 0) return -1;
+            out.append(re, i, end + 1);
+            return end + 1;
+        }
+        return -1; // Inline flags
+    }
+
+    /**
+     * Copy an escape sequence.
+     *
+     * @return The index after it, or -1 if it can't be folded.
+     */
+    private static int escape(String re, int i, StringBuilder out, boolean inClass) {
+        char c = re.charAt(i + 1);
+        if ("dDsSwWtnrfae".indexOf(c) >= 0 ||
+                (!inClass && "bBAGZz".indexOf(c) >= 0) ||
+                (!inClass && c >= '1' && c <= '9')) {
+            out.append('\\').append(c);
+            return i + 2;
+        }
+        if (c == 'k' && !inClass) {
+            int end = re.indexOf('>', i);
+            if (end < 0) return -1;
+            out.append(re, i, end + 1);
+            return end + 1;
+        }
+        if (c == 'Q' && !inClass) {
+            int end = re.indexOf("\\E", i + 2);
+            if (end < 0) end = re.length();
+            out.append("\\Q");
+            for (int j = i + 2; j < end; j++) out.append(lower(re.charAt(j)));
+            if (end < re.length()) out.append("\\E");
+            return Math.min(end + 2, re.length());
+        }
+        if (Character.isLetterOrDigit(c)) return -1; // \x41, \p{Upper}, \0101, etc.
+        out.append('\\').append(c);
+        return i + 2;
+    }
+
+    /**
+     * Copy a char class, adding the lower case of every upper case letter in
+     * it.  Chars that aren't upper case ASCII letters are left as they are,
+     * and the folded text has no upper case ASCII letters, so the class
+     * matches the folded text the same way the original matches ignoring case,
+     * however it is negated or intersected.
+     *
+     * @return The index after the class, or -1 if it can't be folded.
+     */
+    private static int charClass(String re, int i, StringBuilder out) {
+        out.append('[');
+        i++;
+        if (re.charAt(i) == '^') {
+            out.append('^');
+            i++;
+        }
+        if (re.charAt(i) == ']') return -1; // Leave odd syntax alone.
+
+        while (true) {
+            char c = re.charAt(i);
+            if (c == ']') {
+                out.append(']');
+                return i + 1;
+            }
+            if (c == '[') {
+                i = charClass(re, i, out);
+                if (i < 0) return -1;
+                continue;
+            }
+            if (c == '&' && re.charAt(i + 1) == '&') {
+                out.append("&&");
+                i += 2;
+                continue;
+            }
+
+            // A single char, possibly the start of a range.
+            int first;
+            int next;
+            if (c == '\\') {
+                char e = re.charAt(i + 1);
+                if (Character.isLetterOrDigit(e)) {
+                    // \d, \w etc. are the same in either case.
+                    next = escape(re, i, out, true);
+                    if (next < 0) return -1;
+                    i = next;
+                    continue;
+                }
+                first = e;
+                next = i + 2;
+            } else {
+                first = c;
+                next = i + 1;
+            }
+
+            int last = first;
+            if (re.charAt(next) == '-' && re.charAt(next + 1) != ']' && re.charAt(next + 1) != '[') {
+                char d = re.charAt(next + 1);
+                if (d == '\\') {
+                    char e = re.charAt(next + 2);
+                    if (Character.isLetterOrDigit(e)) return -1;
+                    last = e;
+                    next += 3;
+                } else {
+                    last = d;
+                    next += 2;
+                }
+            }
+            out.append(re, i, next);
+            i = next;
+
+            // Add the lower case of any upper case letters in the range.
+            int lo = Math.max(first, 'A'), hi = Math.min(last, 'Z');
+            if (lo <= hi) {
+                out.append(lower((char) lo));
+                if (hi > lo) out.append('-').append(lower((char) hi));
+            }
+        }
+    }
+}
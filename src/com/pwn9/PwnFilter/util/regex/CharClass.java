@@ -0,0 +1,186 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of UTF-16 chars, stored as a sorted array of inclusive
+ * [lo,hi] ranges.  This is what every single-character regex construct
+ * (literals, [classes], \w, . etc.) gets parsed into.
+ */
+public final class CharClass {
+
+    public static final CharClass EMPTY = new CharClass(new int[0]);
+    public static final CharClass ANY = new CharClass(new int[]{0, Character.MAX_VALUE});
+    public static final CharClass DIGIT = range('0', '9');
+    public static final CharClass WORD = new CharClass(new int[]{'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+    public static final CharClass SPACE = new CharClass(new int[]{'\t', '\r', ' ', ' '});
+    // Java's line terminators: LF, CR, NEL, LINE SEPARATOR and PARAGRAPH SEPARATOR
+    public static final CharClass LINE_TERMINATOR = new CharClass(new int[]{'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029});
+    public static final CharClass DOT = LINE_TERMINATOR.complement();
+
+    private final int[] ranges; // lo0,hi0,lo1,hi1,... sorted, non-overlapping, non-adjacent
+
+    private CharClass(int[] ranges) {
+        this.ranges = ranges;
+    }
+
+    public static CharClass of(char c) {
+        return new CharClass(new int[]{c, c});
+    }
+
+    public static CharClass range(char lo, char hi) {
+        if (lo > hi) return EMPTY;
+        return new CharClass(new int[]{lo, hi});
+    }
+
+    public boolean contains(char c) {
+        // Binary search over the range pairs.
+        int lo = 0, hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c < ranges[mid * 2]) hi = mid - 1;
+            else if (c > ranges[mid * 2 + 1]) lo = mid + 1;
+            else return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /**
+     * @return the number of chars in this set.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i] + 1;
+        }
+        return size;
+    }
+
+    public int rangeCount() {
+        return ranges.length / 2;
+    }
+
+    public char rangeStart(int i) {
+        return (char) ranges[i * 2];
+    }
+
+    public char rangeEnd(int i) {
+        return (char) ranges[i * 2 + 1];
+    }
+
+    /**
+     * @return the only char in this set, or -1 if it has zero or several.
+     */
+    public int singleChar() {
+        return (ranges.length == 2 && ranges[0] == ranges[1]) ? ranges[0] : -1;
+    }
+
+    public CharClass union(CharClass other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        int[] merged = new int[ranges.length + other.ranges.length];
+        int i = 0, j = 0, n = 0;
+        while (i < ranges.length || j < other.ranges.length) {
+            int lo, hi;
+            if (j >= other.ranges.length || (i < ranges.length && ranges[i] <= other.ranges[j])) {
+                lo = ranges[i];
+                hi = ranges[i + 1];
+                i += 2;
+            } else {
+                lo = other.ranges[j];
+                hi = other.ranges[j + 1];
+                j += 2;
+            }
+            if (n > 0 && lo <= merged[n - 1] + 1) {
+                if (hi > merged[n - 1]) merged[n - 1] = hi;
+            } else {
+                merged[n++] = lo;
+                merged[n++] = hi;
+            }
+        }
+        return new CharClass(Arrays.copyOf(merged, n));
+    }
+
+    public CharClass complement() {
+        int[] result = new int[ranges.length + 2];
+        int n = 0;
+        int next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                result[n++] = next;
+                result[n++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            result[n++] = next;
+            result[n++] = Character.MAX_VALUE;
+        }
+        return new CharClass(Arrays.copyOf(result, n));
+    }
+
+    public CharClass intersect(CharClass other) {
+        return complement().union(other.complement()).complement();
+    }
+
+    public boolean intersects(CharClass other) {
+        int i = 0, j = 0;
+        while (i < ranges.length && j < other.ranges.length) {
+            if (ranges[i + 1] < other.ranges[j]) i += 2;
+            else if (other.ranges[j + 1] < ranges[i]) j += 2;
+            else return true;
+        }
+        return false;
+    }
+
+    /**
+     * Close this set over ASCII case, the way Pattern.CASE_INSENSITIVE
+     * (without UNICODE_CASE) matches it.
+     */
+    public CharClass asciiCaseInsensitive() {
+        CharClass lower = intersect(range('a', 'z'));
+        CharClass upper = intersect(range('A', 'Z'));
+        CharClass result = this;
+        for (int i = 0; i < lower.ranges.length; i += 2) {
+            result = result.union(range((char) (lower.ranges[i] - 32), (char) (lower.ranges[i + 1] - 32)));
+        }
+        for (int i = 0; i < upper.ranges.length; i += 2) {
+            result = result.union(range((char) (upper.ranges[i] + 32), (char) (upper.ranges[i + 1] + 32)));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CharClass && Arrays.equals(ranges, ((CharClass) obj).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges.length; i += 2) {
+            sb.append(String.format("\\u%04x", ranges[i]));
+            if (ranges[i + 1] != ranges[i]) sb.append('-').append(String.format("\\u%04x", ranges[i + 1]));
+        }
+        return sb.append(']').toString();
+    }
+}
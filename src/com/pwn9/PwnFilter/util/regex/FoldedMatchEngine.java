@@ -0,0 +1,51 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+/**
+ * Runs an engine compiled from a regex folded by
+ * {@link CaseFolding#foldRegex(String)} against any text, by folding the
+ * text first.  Folding doesn't move anything, so the matches are positions
+ * in the original text.
+ */
+public class FoldedMatchEngine implements MatchEngine {
+
+    private final MatchEngine engine;
+
+    public FoldedMatchEngine(MatchEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public String pattern() {
+        return engine.pattern();
+    }
+
+    @Override
+    public boolean isLinear() {
+        return engine.isLinear();
+    }
+
+    @Override
+    public MatchCursor matcher(CharSequence text) {
+        return engine.matcher(CaseFolding.foldText(text.toString()));
+    }
+
+    @Override
+    public boolean find(CharSequence text) {
+        return engine.find(CaseFolding.foldText(text.toString()));
+    }
+
+    @Override
+    public String toString() {
+        return engine.toString();
+    }
+}
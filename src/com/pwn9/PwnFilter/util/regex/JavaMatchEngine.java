@@ -0,0 +1,87 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link MatchEngine} backed by java.util.regex.  Supports every feature of
+ * Pattern, but a badly-written pattern can take exponential time.
+ */
+public class JavaMatchEngine implements MatchEngine {
+
+    private final Pattern pattern;
+
+    // Matcher for find(), reset for each text.  Matchers aren't thread safe,
+    // and events can be filtered on more than one thread.
+    private final ThreadLocal<Matcher> spare = new ThreadLocal<Matcher>();
+
+    public JavaMatchEngine(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String pattern() {
+        return pattern.pattern();
+    }
+
+    @Override
+    public boolean isLinear() {
+        return false;
+    }
+
+    @Override
+    public MatchCursor matcher(CharSequence text) {
+        final Matcher m = pattern.matcher(text);
+        return new MatchCursor() {
+            @Override
+            public boolean find() {
+                return m.find();
+            }
+
+            @Override
+            public int start() {
+                return m.start();
+            }
+
+            @Override
+            public int end() {
+                return m.end();
+            }
+        };
+    }
+
+    @Override
+    public boolean find(CharSequence text) {
+        Matcher m = spare.get();
+        if (m == null) {
+            m = pattern.matcher(text);
+            spare.set(m);
+        } else {
+            m.reset(text);
+        }
+        try {
+            return m.find();
+        } finally {
+            m.reset(""); // Don't hold on to the text.
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern.toString();
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A guaranteed linear-time {@link MatchEngine}, in the style of RE2.
+ * <p/>
+ * The pattern is compiled to an NFA, which is simulated one char at a time
+ * with all threads in lock-step (a Pike VM).  Threads are kept in priority
+ * order, so matches are leftmost-first, with greedy and lazy quantifiers
+ * working just as they do in java.util.regex.  No text can make a search take
+ * more than O(pattern size * text length).
+ * <p/>
+ * Patterns using backreferences, lookaround, atomic groups, possessive
+ * quantifiers, \G or anything else that needs backtracking can't be compiled.
+ * Like RE2, a repeated group that matches the empty string may keep going
+ * where Java would stop, and text is handled as UTF-16 units.
+ */
+public class LinearMatchEngine implements MatchEngine {
+
+    private final String pattern;
+    private final Nfa nfa;
+    private final int start;
+
+    // Cursor for find(), reset for each text.  One per thread.
+    private final ThreadLocal<Cursor> spare = new ThreadLocal<Cursor>() {
+        @Override
+        protected Cursor initialValue() {
+            return new Cursor("");
+        }
+    };
+
+    private LinearMatchEngine(String pattern, Nfa nfa) {
+        this.pattern = pattern;
+        this.nfa = nfa;
+        this.start = nfa.starts[0];
+    }
+
+    /**
+     * Compile a pattern.
+     *
+     * @param re    The regex string
+     * @param flags Pattern flags (CASE_INSENSITIVE, MULTILINE and DOTALL only)
+     * @return The compiled engine
+     * @throws PatternSyntaxException if the pattern is invalid, or uses a
+     *                                feature that needs backtracking.
+     */
+    public static LinearMatchEngine compile(String re, int flags) throws PatternSyntaxException {
+        RegexNode root = RegexParser.parse(re, flags);
+        if (!Nfa.isRegular(root)) {
+            throw new PatternSyntaxException("Pattern needs backtracking (backreference, lookaround, etc.)", re, -1);
+        }
+        Nfa nfa = new Nfa();
+        if (!nfa.add(root, 0)) {
+            throw new PatternSyntaxException("Pattern is too large", re, -1);
+        }
+        nfa.finish();
+        return new LinearMatchEngine(re, nfa);
+    }
+
+    @Override
+    public String pattern() {
+        return pattern;
+    }
+
+    @Override
+    public boolean isLinear() {
+        return true;
+    }
+
+    @Override
+    public MatchCursor matcher(CharSequence text) {
+        return new Cursor(text);
+    }
+
+    @Override
+    public boolean find(CharSequence text) {
+        Cursor cursor = spare.get();
+        cursor.reset(text);
+        try {
+            return cursor.find();
+        } finally {
+            cursor.reset(""); // Don't hold on to the text.
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private class Cursor implements MatchCursor {
+        private CharSequence text;
+        private int len;
+
+        // Thread lists: pc and match start, in priority order.
+        private int[] currentPc, currentStart, nextPc, nextStart;
+        private int currentSize, nextSize;
+
+        // Closure bookkeeping
+        private final int[] visited;
+        private int generation;
+        private final int[] stack;
+
+        private int searchFrom = 0;
+        private int matchStart = -1, matchEnd = -1;
+
+        Cursor(CharSequence text) {
+            this.text = text;
+            this.len = text.length();
+            int n = nfa.size();
+            currentPc = new int[n];
+            currentStart = new int[n];
+            nextPc = new int[n];
+            nextStart = new int[n];
+            visited = new int[n];
+            stack = new int[n * 2 + 1];
+        }
+
+        /**
+         * Start again, on a new text.
+         */
+        void reset(CharSequence text) {
+            this.text = text;
+            this.len = text.length();
+            searchFrom = 0;
+            matchStart = matchEnd = -1;
+        }
+
+        @Override
+        public boolean find() {
+            if (searchFrom > len) return false;
+
+            int foundStart = -1, foundEnd = -1;
+            currentSize = 0;
+
+            for (int i = searchFrom; ; i++) {
+                if (foundStart < 0) {
+                    // Start a new, lowest priority, thread at this position.
+                    newGeneration();
+                    for (int t = 0; t < currentSize; t++) visited[currentPc[t]] = generation;
+                    addThread(currentPc, currentStart, start, i, i, true);
+                }
+                if (currentSize == 0) {
+                    if (foundStart >= 0 || i >= len) break;
+                    continue;
+                }
+
+                newGeneration();
+                nextSize = 0;
+                for (int t = 0; t < currentSize; t++) {
+                    int pc = currentPc[t];
+                    if (nfa.op[pc] == Nfa.MATCH) {
+                        // Lower priority threads can't win any more.
+                        foundStart = currentStart[t];
+                        foundEnd = i;
+                        break;
+                    }
+                    if (i < len && nfa.chars[pc].contains(text.charAt(i))) {
+                        addThread(nextPc, nextStart, nfa.next[pc], currentStart[t], i + 1, false);
+                    }
+                }
+
+                int[] swap = currentPc;
+                currentPc = nextPc;
+                nextPc = swap;
+                swap = currentStart;
+                currentStart = nextStart;
+                nextStart = swap;
+                currentSize = nextSize;
+
+                if (i >= len) break;
+            }
+
+            if (foundStart < 0) {
+                searchFrom = len + 1;
+                return false;
+            }
+            matchStart = foundStart;
+            matchEnd = foundEnd;
+            // After an empty match, move on one char, like Matcher.find()
+            searchFrom = (foundEnd == foundStart) ? foundEnd + 1 : foundEnd;
+            return true;
+        }
+
+        @Override
+        public int start() {
+            if (matchStart < 0) throw new IllegalStateException("No match available");
+            return matchStart;
+        }
+
+        @Override
+        public int end() {
+            if (matchStart < 0) throw new IllegalStateException("No match available");
+            return matchEnd;
+        }
+
+        private void newGeneration() {
+            if (++generation == 0) {
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * Add the thread at pc, and everything reachable from it without
+         * consuming a char, to a list in priority order.
+         */
+        private void addThread(int[] pcs, int[] starts, int pc, int matchStart, int pos, boolean current) {
+            int sp = 0;
+            stack[sp++] = pc;
+            while (sp > 0) {
+                pc = stack[--sp];
+                if (visited[pc] == generation) continue;
+                visited[pc] = generation;
+                switch (nfa.op[pc]) {
+                    case Nfa.SPLIT:
+                        stack[sp++] = nfa.alt[pc];
+                        stack[sp++] = nfa.next[pc];
+                        break;
+                    case Nfa.ASSERT:
+                        if (holds(nfa.assertion[pc], pos)) stack[sp++] = nfa.next[pc];
+                        break;
+                    default:
+                        // CHAR or MATCH
+                        if (current) {
+                            pcs[currentSize] = pc;
+                            starts[currentSize++] = matchStart;
+                        } else {
+                            pcs[nextSize] = pc;
+                            starts[nextSize++] = matchStart;
+                        }
+                }
+            }
+        }
+
+        private boolean holds(RegexNode.Assertion a, int i) {
+            switch (a) {
+                case BEGIN_INPUT:
+                    return i == 0;
+                case BEGIN_LINE:
+                    if (i == len) return false;
+                    if (i == 0) return true;
+                    char prev = text.charAt(i - 1);
+                    if (prev == '\r' && text.charAt(i) == '\n') return false;
+                    return isTerminator(prev);
+                case END_INPUT:
+                    return i == len;
+                case END_INPUT_TERMINATOR:
+                    // At the end, or before a final line terminator.
+                    if (i == len) return true;
+                    if (i == len - 2) return text.charAt(i) == '\r' && text.charAt(i + 1) == '\n';
+                    if (i == len - 1) return beforeTerminator(i);
+                    return false;
+                case END_LINE:
+                    return i == len || beforeTerminator(i);
+                case WORD_BOUNDARY:
+                    return isWordBefore(i) != isWordAt(i);
+                case NON_WORD_BOUNDARY:
+                    return isWordBefore(i) == isWordAt(i);
+                default:
+                    return false;
+            }
+        }
+
+        private boolean beforeTerminator(int i) {
+            char c = text.charAt(i);
+            if (c == '\n') return i == 0 || text.charAt(i - 1) != '\r';
+            return isTerminator(c);
+        }
+
+        private boolean isTerminator(char c) {
+            return CharClass.LINE_TERMINATOR.contains(c);
+        }
+
+        private boolean isWordBefore(int i) {
+            return i > 0 && Nfa.BOUNDARY_WORD[text.charAt(i - 1)];
+        }
+
+        private boolean isWordAt(int i) {
+            return i < len && Nfa.BOUNDARY_WORD[text.charAt(i)];
+        }
+    }
+}
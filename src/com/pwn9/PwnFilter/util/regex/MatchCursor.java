@@ -0,0 +1,37 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+/**
+ * Iterates over the matches of a {@link MatchEngine} in a text.  This works
+ * like the find() / start() / end() subset of java.util.regex.Matcher.
+ */
+public interface MatchCursor {
+
+    /**
+     * Find the next match.  After an empty match, the search resumes one
+     * char further on, like java.util.regex.Matcher.
+     *
+     * @return true if another match was found.
+     */
+    public boolean find();
+
+    /**
+     * @return The start index of the current match.
+     */
+    public int start();
+
+    /**
+     * @return The end index (exclusive) of the current match.
+     */
+    public int end();
+
+}
@@ -0,0 +1,48 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+/**
+ * Something that can find the matches of a compiled regex in a text.
+ * <p/>
+ * Rules normally use java.util.regex ({@link JavaMatchEngine}), but can
+ * choose the linear-time {@link LinearMatchEngine} instead.
+ */
+public interface MatchEngine {
+
+    /**
+     * @return The regex string this engine was compiled from.
+     */
+    public String pattern();
+
+    /**
+     * @return true if matching is guaranteed to take time linear in the length
+     * of the text, so doesn't need a timeout.
+     */
+    public boolean isLinear();
+
+    /**
+     * @param text The text to search
+     * @return A cursor over the successive matches in the text.
+     */
+    public MatchCursor matcher(CharSequence text);
+
+    /**
+     * Check for a match, without building a cursor.  Most messages don't
+     * match most rules, so this is what is run most often: engines should
+     * answer without allocating anything.
+     *
+     * @param text The text to search
+     * @return true if there is a match anywhere in the text.
+     */
+    public boolean find(CharSequence text);
+
+}
@@ -0,0 +1,72 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.Arrays;
+
+/**
+ * A list of matches which have already been found, so they can be gone over
+ * again without running the regex a second time.  The list can be cleared
+ * and reused.
+ */
+public final class MatchSpans {
+
+    private int[] spans = new int[8]; // start, end, start, end, ...
+    private int count;
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Add a match.  Matches must be added in the order they were found.
+     */
+    public void add(int start, int end) {
+        if (count * 2 == spans.length) spans = Arrays.copyOf(spans, spans.length * 2);
+        spans[count * 2] = start;
+        spans[count * 2 + 1] = end;
+        count++;
+    }
+
+    /**
+     * @return The number of matches.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return A cursor over the matches in this list.  The list must not be
+     * changed while it is in use.
+     */
+    public MatchCursor cursor() {
+        return new MatchCursor() {
+            private int i = -1;
+
+            @Override
+            public boolean find() {
+                if (i + 1 >= count) return false;
+                i++;
+                return true;
+            }
+
+            @Override
+            public int start() {
+                return spans[i * 2];
+            }
+
+            @Override
+            public int end() {
+                return spans[i * 2 + 1];
+            }
+        };
+    }
+}
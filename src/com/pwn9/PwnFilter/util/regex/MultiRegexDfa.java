@@ -0,0 +1,363 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.*;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Many regexes merged into one lazily-built DFA.
+ * <p/>
+ * One pass over the text reports which of the patterns would find() a match
+ * anywhere in it.  This gives the same answer as java.util.regex for every
+ * pattern accepted by {@link #canCompile(String, int)}, but in time linear in
+ * the length of the text, no matter how many patterns there are.
+ * <p/>
+ * DFA states are only built as the text needs them, and are cached.  If the
+ * cache gets too big, it is thrown away and rebuilt.  The cache is shared
+ * between threads: following a transition that has already been built
+ * doesn't lock anything, only building a new one does.  Transitions are
+ * immutable, so a thread either sees a complete one, or none (and builds it
+ * under the lock, if another thread hasn't already).  A thread still using
+ * states from before a flush is fine: they are still correct, just no longer
+ * shared.
+ * <p/>
+ * We only model UTF-16 units, and $ as the very end of input, so texts
+ * containing surrogates, line terminators or combining marks are refused,
+ * and the caller must fall back to the real regexes.
+ */
+public final class MultiRegexDfa {
+
+    private static final int MAX_STATES = 4000;
+    private static final int MAX_FLUSHES_PER_SCAN = 4;
+
+    private static final int FLAG_PREV_WORD = 1;
+    private static final int FLAG_AT_START = 2;
+
+    // Chars we can't handle.
+    private static final boolean[] UNSUPPORTED = new boolean[Character.MAX_VALUE + 1];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char ch = (char) c;
+            UNSUPPORTED[c] = Character.isSurrogate(ch) || CharClass.LINE_TERMINATOR.contains(ch) ||
+                    Character.getType(ch) == Character.NON_SPACING_MARK;
+        }
+    }
+
+    private final Nfa nfa;
+    private final int[] ids;           // Pattern ids, for the MATCH instructions.
+    private final char[] classOf;      // char -> equivalence class
+    private final char[] representative; // class -> a char in that class
+    private final boolean usesBoundary; // Do we need to track \b at all?
+    private final int endKey;          // Transition key for the end of input
+
+    // The lazy DFA cache.  states is guarded by this, initial is published.
+    private final Map<State, State> states = new HashMap<State, State>();
+    private volatile State initial;
+
+    // Scratch space for closures.  Guarded by this.
+    private final int[] visited;
+    private int generation;
+    private final int[] stack;
+
+    private MultiRegexDfa(Nfa nfa, int[] ids) {
+        this.nfa = nfa;
+        this.ids = ids;
+        visited = new int[nfa.size()];
+        stack = new int[nfa.size() * 3 + nfa.starts.length];
+
+        // Split the char space into classes that no instruction can tell apart.
+        // Whether a char is a word char (for \b) is kept separately, so
+        // the transition key for a char is: class * 2 + (isWord ? 1 : 0)
+        TreeSet<Integer> cuts = new TreeSet<Integer>();
+        cuts.add(0);
+        boolean boundary = false;
+        for (int pc = 0; pc < nfa.size(); pc++) {
+            if (nfa.op[pc] == Nfa.CHAR) addCuts(cuts, nfa.chars[pc]);
+            if (nfa.op[pc] == Nfa.ASSERT && (nfa.assertion[pc] == RegexNode.Assertion.WORD_BOUNDARY ||
+                    nfa.assertion[pc] == RegexNode.Assertion.NON_WORD_BOUNDARY)) boundary = true;
+        }
+        usesBoundary = boundary;
+        endKey = cuts.size() * 2;
+        classOf = new char[Character.MAX_VALUE + 1];
+        representative = new char[cuts.size()];
+        int cls = -1;
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (cuts.contains(c)) {
+                cls++;
+                representative[cls] = (char) c;
+            }
+            classOf[c] = (char) cls;
+        }
+    }
+
+    private static void addCuts(Set<Integer> cuts, CharClass cc) {
+        for (int i = 0; i < cc.rangeCount(); i++) {
+            cuts.add((int) cc.rangeStart(i));
+            if (cc.rangeEnd(i) < Character.MAX_VALUE) cuts.add(cc.rangeEnd(i) + 1);
+        }
+    }
+
+    /**
+     * @return true if this pattern can be added to a MultiRegexDfa
+     */
+    public static boolean canCompile(String re, int flags) {
+        try {
+            return Nfa.canCompile(RegexParser.parse(re, flags));
+        } catch (PatternSyntaxException ex) {
+            return false;
+        }
+    }
+
+    public static class Builder {
+        private final Nfa nfa = new Nfa();
+        private final List<Integer> ids = new ArrayList<Integer>();
+
+        /**
+         * Add a pattern.
+         *
+         * @param re    The regex string
+         * @param flags Flags it was compiled with
+         * @param id    Value to set in the hits BitSet when it matches.
+         * @return false if the pattern can't be run by the DFA.
+         */
+        public boolean add(String re, int flags, int id) {
+            RegexNode root;
+            try {
+                root = RegexParser.parse(re, flags);
+            } catch (PatternSyntaxException ex) {
+                return false;
+            }
+            if (!Nfa.canCompile(root)) return false;
+            if (!nfa.add(root, ids.size())) return false;
+            ids.add(id);
+            return true;
+        }
+
+        public boolean isEmpty() {
+            return nfa.isEmpty();
+        }
+
+        public MultiRegexDfa build() {
+            nfa.finish();
+            int[] idArray = new int[ids.size()];
+            for (int i = 0; i < idArray.length; i++) idArray[i] = ids.get(i);
+            return new MultiRegexDfa(nfa, idArray);
+        }
+    }
+
+    /**
+     * A DFA state: the set of NFA threads waiting to consume the next char
+     * (the pattern starts are implied), plus what we need to know about the
+     * previous char to evaluate assertions.
+     */
+    private final class State {
+        final int[] kernel;
+        final int flags;
+        // Written under the lock, read without it.  null until computed.
+        final Transition[] targets = new Transition[endKey + 1];
+
+        State(int[] kernel, int flags) {
+            this.kernel = kernel;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) return false;
+            State s = (State) o;
+            return flags == s.flags && Arrays.equals(kernel, s.kernel);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(kernel) * 31 + flags;
+        }
+    }
+
+    /**
+     * The state to go to on a key, and the patterns which matched before it.
+     * All fields are final, so it can be read by other threads without a lock.
+     */
+    private static final class Transition {
+        final State target;
+        final int[] matches; // null if none
+
+        Transition(State target, int[] matches) {
+            this.target = target;
+            this.matches = matches;
+        }
+    }
+
+    /**
+     * Scan the text, and set the id of every pattern that matches it.
+     *
+     * @param text Text to scan
+     * @param hits BitSet to set matching ids in.
+     * @return false if the text has chars we can't handle.  Nothing is set
+     * in hits in that case.
+     */
+    public boolean scan(CharSequence text, BitSet hits) {
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            if (UNSUPPORTED[text.charAt(i)]) return false;
+        }
+
+        int flushes = 0;
+        BitSet found = new BitSet(ids.length);
+        State state = initial();
+
+        for (int i = 0; i <= len; i++) {
+            int key = endKey;
+            if (i < len) {
+                char c = text.charAt(i);
+                key = classOf[c] * 2 + ((usesBoundary && Nfa.BOUNDARY_WORD[c]) ? 1 : 0);
+            }
+            Transition t = state.targets[key];
+            if (t == null) {
+                synchronized (this) {
+                    t = state.targets[key]; // Another thread may have just built it.
+                    if (t == null) {
+                        if (states.size() >= MAX_STATES) {
+                            if (++flushes > MAX_FLUSHES_PER_SCAN) return false;
+                            flush();
+                            state = intern(state.kernel, state.flags);
+                        }
+                        t = step(state, key);
+                    }
+                }
+            }
+            if (t.matches != null) {
+                for (int m : t.matches) found.set(m);
+            }
+            state = t.target;
+        }
+
+        for (int m = found.nextSetBit(0); m >= 0; m = found.nextSetBit(m + 1)) {
+            hits.set(ids[m]);
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of patterns in this DFA.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    private State initial() {
+        State s = initial;
+        if (s != null) return s;
+        synchronized (this) {
+            if (initial == null) initial = intern(new int[0], FLAG_AT_START);
+            return initial;
+        }
+    }
+
+    // Called with the lock held.
+    private void flush() {
+        states.clear();
+        initial = null;
+    }
+
+    private State intern(int[] kernel, int flags) {
+        State s = new State(kernel, flags);
+        State existing = states.get(s);
+        if (existing != null) return existing;
+        states.put(s, s);
+        return s;
+    }
+
+    /**
+     * Work out the transition from state on a transition key (or the end
+     * of input) and cache it.  Called with the lock held.
+     */
+    private Transition step(State state, int key) {
+        boolean atEnd = (key == endKey);
+        char c = atEnd ? 0 : representative[key / 2];
+        boolean prevWord = (state.flags & FLAG_PREV_WORD) != 0;
+        boolean atStart = (state.flags & FLAG_AT_START) != 0;
+        boolean nextWord = !atEnd && (key & 1) != 0;
+
+        if (++generation == 0) {
+            Arrays.fill(visited, 0);
+            generation = 1;
+        }
+        int sp = 0;
+        for (int pc : nfa.starts) stack[sp++] = pc;
+        for (int pc : state.kernel) stack[sp++] = pc;
+
+        TreeSet<Integer> nextKernel = new TreeSet<Integer>();
+        TreeSet<Integer> matched = null;
+
+        while (sp > 0) {
+            int pc = stack[--sp];
+            if (visited[pc] == generation) continue;
+            visited[pc] = generation;
+            switch (nfa.op[pc]) {
+                case Nfa.CHAR:
+                    if (!atEnd && nfa.chars[pc].contains(c)) nextKernel.add(nfa.next[pc]);
+                    break;
+                case Nfa.SPLIT:
+                    stack[sp++] = nfa.alt[pc];
+                    stack[sp++] = nfa.next[pc];
+                    break;
+                case Nfa.ASSERT:
+                    if (holds(nfa.assertion[pc], atStart, atEnd, prevWord, nextWord)) stack[sp++] = nfa.next[pc];
+                    break;
+                case Nfa.MATCH:
+                    if (matched == null) matched = new TreeSet<Integer>();
+                    matched.add(nfa.next[pc]);
+                    break;
+                default:
+            }
+        }
+
+        int[] kernel = new int[nextKernel.size()];
+        int i = 0;
+        for (int pc : nextKernel) kernel[i++] = pc;
+        State target = intern(kernel, nextWord ? FLAG_PREV_WORD : 0);
+
+        int[] m = null;
+        if (matched != null) {
+            m = new int[matched.size()];
+            i = 0;
+            for (int id : matched) m[i++] = id;
+        }
+        Transition t = new Transition(target, m);
+        state.targets[key] = t;
+        return t;
+    }
+
+    private static boolean holds(RegexNode.Assertion a, boolean atStart, boolean atEnd,
+                                 boolean prevWord, boolean nextWord) {
+        switch (a) {
+            case BEGIN_INPUT:
+                return atStart;
+            case BEGIN_LINE:
+                // Like Perl, Java never matches a multiline ^ at the end of input.
+                return atStart && !atEnd;
+            case END_INPUT:
+            case END_INPUT_TERMINATOR:
+            case END_LINE:
+                // The text has no line terminators, so these are all the same.
+                return atEnd;
+            case WORD_BOUNDARY:
+                return prevWord != nextWord;
+            case NON_WORD_BOUNDARY:
+                return prevWord == nextWord;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Thompson NFA program, compiled from one or more {@link RegexNode} trees.
+ * <p/>
+ * Only the constructs an automaton can run without backtracking are
+ * supported: see {@link #canCompile(RegexNode)}.  Each pattern ends in a
+ * MATCH instruction carrying the id it was added with.
+ */
+final class Nfa {
+
+    static final int CHAR = 0;   // Consume a char in chars[pc], goto next[pc]
+    static final int SPLIT = 1;  // goto next[pc] and alt[pc] (next is preferred)
+    static final int ASSERT = 2; // If assertion[pc] holds, goto next[pc]
+    static final int MATCH = 3;  // Pattern next[pc] has matched.
+
+    // Large counted repeats ({1,500}) are expanded, so cap the program size.
+    static final int MAX_PROGRAM_SIZE = 20000;
+
+    // Chars that \b considers part of a word.
+    static final boolean[] BOUNDARY_WORD = new boolean[Character.MAX_VALUE + 1];
+
+    static {
+        // Java changed the meaning of \b between versions, so ask it.
+        Matcher m = Pattern.compile("\\b").matcher("");
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (!Character.isSurrogate((char) c)) {
+                BOUNDARY_WORD[c] = m.reset(String.valueOf((char) c)).find();
+            }
+        }
+    }
+
+    private final List<Integer> ops = new ArrayList<Integer>();
+    private final List<Integer> nexts = new ArrayList<Integer>();
+    private final List<Integer> alts = new ArrayList<Integer>();
+    private final List<CharClass> charList = new ArrayList<CharClass>();
+    private final List<RegexNode.Assertion> assertionList = new ArrayList<RegexNode.Assertion>();
+    private final List<Integer> startList = new ArrayList<Integer>();
+
+    // Finalized program
+    int[] op, next, alt;
+    CharClass[] chars;
+    RegexNode.Assertion[] assertion;
+    int[] starts;
+
+    /**
+     * @return true if the pattern only uses constructs that can be run by an
+     * automaton with exactly the same result as java.util.regex.
+     * Backreferences, lookaround, atomic groups, possessive quantifiers (unless
+     * they behave just like greedy ones) and anything we don't model are
+     * rejected.  So are repeats of something that
+     * can match the empty string (eg: (^a*){2}), because java.util.regex
+     * stops looping after an empty iteration, and an automaton doesn't.
+     */
+    static boolean canCompile(RegexNode node) {
+        return isRegular(node, true, RedosAnalyzer.redundantPossessives(node));
+    }
+
+    /**
+     * @return true if the pattern can be compiled at all.  Unlike canCompile(),
+     * repeats of empty-matching groups are allowed; they just don't behave
+     * exactly like java.util.regex.
+     */
+    static boolean isRegular(RegexNode node) {
+        return isRegular(node, false, RedosAnalyzer.redundantPossessives(node));
+    }
+
+    /**
+     * @param greedy Possessive repeats which can be treated as greedy ones.
+     */
+    private static boolean isRegular(RegexNode node, boolean exact, Set<RegexNode> greedy) {
+        switch (node.type) {
+            case BACKREF:
+            case OPAQUE:
+                return false;
+            case ASSERTION:
+                return node.assertion != RegexNode.Assertion.LAST_MATCH_END;
+            case GROUP:
+                if (node.groupType.isLookaround() || node.groupType == RegexNode.GroupType.ATOMIC) return false;
+                break;
+            case REPEAT:
+                if (node.mode == RegexNode.Mode.POSSESSIVE && !greedy.contains(node)) return false;
+                if (exact && node.max != 1 && nullable(node.getChild())) return false;
+                break;
+            default:
+        }
+        for (RegexNode child : node.children) {
+            if (!isRegular(child, exact, greedy)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if node can match the empty string.
+     */
+    static boolean nullable(RegexNode node) {
+        switch (node.type) {
+            case EMPTY:
+            case ASSERTION:
+                return true;
+            case GROUP:
+                return nullable(node.getChild());
+            case SEQUENCE:
+                for (RegexNode child : node.children) {
+                    if (!nullable(child)) return false;
+                }
+                return true;
+            case ALTERNATION:
+                for (RegexNode child : node.children) {
+                    if (nullable(child)) return true;
+                }
+                return false;
+            case REPEAT:
+                return node.min == 0 || nullable(node.getChild());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Add a pattern to the program.
+     *
+     * @param root The parsed pattern, which must pass canCompile()
+     * @param id   Value to report when it matches.
+     * @return false if the pattern would make the program too big.  The
+     * program is left unchanged in that case.
+     */
+    boolean add(RegexNode root, int id) {
+        int mark = ops.size();
+        try {
+            int match = emit(MATCH, id, -1, null, null);
+            startList.add(compile(root, match));
+            return true;
+        } catch (ProgramTooLargeException ex) {
+            truncate(ops, mark);
+            truncate(nexts, mark);
+            truncate(alts, mark);
+            truncate(charList, mark);
+            truncate(assertionList, mark);
+            return false;
+        }
+    }
+
+    boolean isEmpty() {
+        return startList.isEmpty();
+    }
+
+    void finish() {
+        int n = ops.size();
+        op = new int[n];
+        next = new int[n];
+        alt = new int[n];
+        chars = charList.toArray(new CharClass[n]);
+        assertion = assertionList.toArray(new RegexNode.Assertion[n]);
+        for (int i = 0; i < n; i++) {
+            op[i] = ops.get(i);
+            next[i] = nexts.get(i);
+            alt[i] = alts.get(i);
+        }
+        starts = new int[startList.size()];
+        for (int i = 0; i < starts.length; i++) starts[i] = startList.get(i);
+    }
+
+    int size() {
+        return ops.size();
+    }
+
+    private static <T> void truncate(List<T> list, int size) {
+        while (list.size() > size) list.remove(list.size() - 1);
+    }
+
+    private static class ProgramTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private int emit(int o, int n, int a, CharClass c, RegexNode.Assertion as) {
+        if (ops.size() >= MAX_PROGRAM_SIZE) throw new ProgramTooLargeException();
+        ops.add(o);
+        nexts.add(n);
+        alts.add(a);
+        charList.add(c);
+        assertionList.add(as);
+        return ops.size() - 1;
+    }
+
+    /**
+     * Compile node so that it continues at pc "next" once it has matched.
+     * The program is built back-to-front, so "next" always exists already.
+     *
+     * @return the entry point of node.
+     */
+    private int compile(RegexNode node, int next) {
+        switch (node.type) {
+            case EMPTY:
+                return next;
+            case CHARS:
+                return emit(CHAR, next, -1, node.chars, null);
+            case ASSERTION:
+                return emit(ASSERT, next, -1, null, node.assertion);
+            case GROUP:
+                return compile(node.getChild(), next);
+            case SEQUENCE:
+                for (int i = node.children.size() - 1; i >= 0; i--) {
+                    next = compile(node.children.get(i), next);
+                }
+                return next;
+            case ALTERNATION: {
+                int entry = compile(node.children.get(node.children.size() - 1), next);
+                for (int i = node.children.size() - 2; i >= 0; i--) {
+                    entry = emit(SPLIT, compile(node.children.get(i), next), entry, null, null);
+                }
+                return entry;
+            }
+            case REPEAT:
+                return compileRepeat(node, next);
+            default:
+                throw new IllegalArgumentException("Can't compile " + node);
+        }
+    }
+
+    private int compileRepeat(RegexNode node, int next) {
+        RegexNode child = node.getChild();
+        boolean lazy = node.mode == RegexNode.Mode.LAZY;
+        int entry;
+        if (node.max == RegexNode.UNBOUNDED) {
+            // loop: SPLIT(child -> loop, next), or the other way round if lazy.
+            int loop = emit(SPLIT, -1, -1, null, null);
+            int body = compile(child, loop);
+            nexts.set(loop, lazy ? next : body);
+            alts.set(loop, lazy ? body : next);
+            entry = loop;
+        } else {
+            // Each optional copy may either run, or skip to the end.
+            entry = next;
+            for (int i = node.min; i < node.max; i++) {
+                int body = compile(child, entry);
+                entry = lazy ? emit(SPLIT, next, body, null, null) : emit(SPLIT, body, next, null, null);
+            }
+        }
+        for (int i = 0; i < node.min; i++) {
+            entry = compile(child, entry);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import com.pwn9.PwnFilter.util.NormalizedText;
+
+/**
+ * Runs another engine against the {@link NormalizedText} view of the text,
+ * and reports its matches as positions in the original text, so actions
+ * like replace work on the original message.
+ */
+public class NormalizingMatchEngine implements MatchEngine {
+
+    private final MatchEngine engine;
+
+    public NormalizingMatchEngine(MatchEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return The engine that matches the normalized text.
+     */
+    public MatchEngine getEngine() {
+        return engine;
+    }
+
+    @Override
+    public String pattern() {
+        return engine.pattern();
+    }
+
+    @Override
+    public boolean isLinear() {
+        return engine.isLinear();
+    }
+
+    @Override
+    public MatchCursor matcher(CharSequence text) {
+        return matcher(NormalizedText.of(text));
+    }
+
+    @Override
+    public boolean find(CharSequence text) {
+        return engine.find(NormalizedText.of(text).toString());
+    }
+
+    /**
+     * @param text A text which has already been normalized.
+     * @return A cursor over the matches, as positions in the original text.
+     */
+    public MatchCursor matcher(final NormalizedText text) {
+        final MatchCursor m = engine.matcher(text.toString());
+        return new MatchCursor() {
+            private int start, end;
+
+            @Override
+            public boolean find() {
+                if (!m.find()) return false;
+                start = text.originalStart(m.start());
+                end = (m.end() > m.start()) ? text.originalEnd(m.end()) : start;
+                return true;
+            }
+
+            @Override
+            public int start() {
+                return start;
+            }
+
+            @Override
+            public int end() {
+                return end;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "normalized " + engine;
+    }
+}
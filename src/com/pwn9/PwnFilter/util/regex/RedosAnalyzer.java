@@ -0,0 +1,522 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.*;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Looks for regex shapes that can make java.util.regex backtrack
+ * catastrophically, and makes quantifiers possessive where that provably
+ * can't change what the pattern matches.
+ * <p/>
+ * We look for:
+ * <ul>
+ * <li>Nested quantifiers, where the inner one can run into the next iteration
+ * of the outer one, eg: (a+)+ or (\w+\s?)*</li>
+ * <li>Alternatives under a repeat that can match the same text, eg: (\w|\d)+</li>
+ * <li>Adjacent quantifiers that can match the same text, eg: \w*\s*\w*</li>
+ * </ul>
+ * A greedy run of a char class (eg: a+, [a-z]{2,5} or (?:a+)+) is made
+ * possessive if nothing that can follow it can start with one of its chars.
+ * Giving chars back could then never help the rest of the pattern match,
+ * so the result is the same, but the backtracking is skipped.  This is the
+ * same thing PCRE does with "auto-possessification".
+ */
+public class RedosAnalyzer {
+
+    // A repeat this big counts as unbounded.
+    private static final int LARGE_REPEAT = 10;
+
+    private final RegexNode root;
+    private final Map<RegexNode, RegexNode> parents = new IdentityHashMap<RegexNode, RegexNode>();
+
+    private RedosAnalyzer(RegexNode root) {
+        this.root = root;
+        linkParents(root);
+    }
+
+    private void linkParents(RegexNode node) {
+        for (RegexNode child : node.children) {
+            parents.put(child, node);
+            linkParents(child);
+        }
+    }
+
+    /**
+     * @param re    The regex string
+     * @param flags The flags it is compiled with.
+     * @return A description of each risky construct in the pattern.  Empty if
+     * we found none, or if we couldn't parse the pattern.
+     */
+    public static List<String> findProblems(String re, int flags) {
+        try {
+            return new RedosAnalyzer(RegexParser.parse(re, flags)).findProblems();
+        } catch (PatternSyntaxException ex) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param re    The regex string
+     * @param flags The flags it is compiled with.
+     * @return The pattern, with every quantifier that can safely be made
+     * possessive changed to be.  The pattern itself if there are none, or if
+     * we couldn't parse it.
+     */
+    public static String harden(String re, int flags) {
+        try {
+            return new RedosAnalyzer(RegexParser.parse(re, flags)).harden(re);
+        } catch (PatternSyntaxException ex) {
+            return re;
+        }
+    }
+
+    /**
+     * @return The possessive quantifiers in a pattern which behave exactly
+     * like greedy ones (eg: the ones added by harden()).
+     */
+    static Set<RegexNode> redundantPossessives(RegexNode root) {
+        Set<RegexNode> result = Collections.newSetFromMap(new IdentityHashMap<RegexNode, Boolean>());
+        RedosAnalyzer analyzer = null;
+        for (RegexNode repeat : possessives(root, new ArrayList<RegexNode>())) {
+            if (analyzer == null) analyzer = new RedosAnalyzer(root);
+            if (analyzer.isSafeRun(repeat)) result.add(repeat);
+        }
+        return result;
+    }
+
+    private static List<RegexNode> possessives(RegexNode node, List<RegexNode> found) {
+        if (node.type == RegexNode.Type.REPEAT && node.mode == RegexNode.Mode.POSSESSIVE) found.add(node);
+        for (RegexNode child : node.children) {
+            possessives(child, found);
+        }
+        return found;
+    }
+
+    /* Hardening */
+
+    private String harden(String re) {
+        // java.util.regex doesn't reset captures inside lookarounds, atomic
+        // groups or possessive quantifiers when it backtracks out of them.
+        // Which stale values are left over depends on exactly how we
+        // backtrack, so leave those patterns alone.
+        if (hasUnrestoredCapture(root, false)) return re;
+        List<Integer> inserts = new ArrayList<Integer>();
+        collectPossessive(root, inserts);
+        if (inserts.isEmpty()) return re;
+        Collections.sort(inserts);
+        StringBuilder sb = new StringBuilder(re.length() + inserts.size());
+        int last = 0;
+        for (int at : inserts) {
+            sb.append(re, last, at).append('+');
+            last = at;
+        }
+        sb.append(re, last, re.length());
+        return sb.toString();
+    }
+
+    private static boolean hasUnrestoredCapture(RegexNode node, boolean atomic) {
+        if (node.type == RegexNode.Type.GROUP) {
+            if (atomic && node.groupType == RegexNode.GroupType.CAPTURING) return true;
+            atomic |= node.groupType.isLookaround() || node.groupType == RegexNode.GroupType.ATOMIC;
+        }
+        if (node.type == RegexNode.Type.REPEAT) atomic |= node.mode == RegexNode.Mode.POSSESSIVE;
+        for (RegexNode child : node.children) {
+            if (hasUnrestoredCapture(child, atomic)) return true;
+        }
+        return false;
+    }
+
+    private void collectPossessive(RegexNode node, List<Integer> inserts) {
+        if (node.type == RegexNode.Type.GROUP && node.groupType.isLookaround()) return;
+        if (node.type == RegexNode.Type.REPEAT && canBePossessive(node)) {
+            // Nothing inside needs to change, once the whole run is possessive.
+            inserts.add(node.end);
+            return;
+        }
+        for (RegexNode child : node.children) {
+            collectPossessive(child, inserts);
+        }
+    }
+
+    private boolean canBePossessive(RegexNode repeat) {
+        return repeat.mode == RegexNode.Mode.GREEDY && isSafeRun(repeat);
+    }
+
+    /**
+     * @return true if it makes no difference whether a (non-lazy) repeat is
+     * greedy or possessive.
+     */
+    private boolean isSafeRun(RegexNode repeat) {
+        if (repeat.min == repeat.max) return false;
+        CharClass run = runChars(repeat, false);
+        if (run == null) return false;
+        First follow = follow(repeat, null);
+        if (follow.chars.intersects(run)) return false;
+        // If the rest of the pattern can match nothing at all, giving chars
+        // back can only change the outcome if an assertion is in the way.
+        return !follow.nullable || !follow.zeroWidth;
+    }
+
+    /**
+     * @return The chars of a repeat that can only ever match a single run of
+     * chars, where every length between its min and max is possible:
+     * X{m,n}, (X+)+, (X*)*, etc.  null if the repeat is anything else.
+     */
+    private static CharClass runChars(RegexNode repeat) {
+        return runChars(repeat, true);
+    }
+
+    /**
+     * @param capturing Look inside capturing groups too.  java.util.regex
+     *                  can leave stale values in capturing groups inside a
+     *                  possessive quantifier, so don't when hardening.
+     */
+    private static CharClass runChars(RegexNode repeat, boolean capturing) {
+        RegexNode body = stripGroups(repeat.getChild(), capturing);
+        if (body.type == RegexNode.Type.CHARS) return body.chars;
+        // java.util.regex makes each iteration of a possessive group atomic, so
+        // the first one has to be able to take the whole run.
+        if (body.type != RegexNode.Type.REPEAT || repeat.max != RegexNode.UNBOUNDED || repeat.min > 1) return null;
+        if (body.min > 1 || body.max != RegexNode.UNBOUNDED || body.mode == RegexNode.Mode.LAZY) return null;
+        RegexNode inner = stripGroups(body.getChild(), capturing);
+        return (inner.type == RegexNode.Type.CHARS) ? inner.chars : null;
+    }
+
+    private static RegexNode stripGroups(RegexNode node) {
+        return stripGroups(node, true);
+    }
+
+    private static RegexNode stripGroups(RegexNode node, boolean capturing) {
+        while (node.type == RegexNode.Type.GROUP && (node.groupType == RegexNode.GroupType.NON_CAPTURING ||
+                (capturing && node.groupType == RegexNode.GroupType.CAPTURING))) {
+            node = node.getChild();
+        }
+        return node;
+    }
+
+    /* Detection */
+
+    private List<String> findProblems() {
+        List<String> problems = new ArrayList<String>();
+        findProblems(root, problems);
+        return problems;
+    }
+
+    private void findProblems(RegexNode node, List<String> problems) {
+        if (node.type == RegexNode.Type.GROUP && node.groupType.isLookaround()) return;
+        if (node.type == RegexNode.Type.REPEAT && isBacktrackingLoop(node)) {
+            String nested = findNestedAmbiguity(node, node.getChild());
+            if (nested != null) {
+                problems.add("nested quantifier " + nested + " in " + node.getSource());
+                return;
+            }
+            String alternation = findOverlappingAlternatives(node.getChild());
+            if (alternation != null) {
+                problems.add("overlapping alternatives " + alternation + " in " + node.getSource());
+                return;
+            }
+        }
+        if (node.type == RegexNode.Type.SEQUENCE) {
+            String adjacent = findAdjacentOverlap(node);
+            if (adjacent != null) problems.add("overlapping adjacent quantifiers " + adjacent);
+        }
+        for (RegexNode child : node.children) {
+            findProblems(child, problems);
+        }
+    }
+
+    private static boolean isBacktrackingLoop(RegexNode repeat) {
+        return repeat.mode != RegexNode.Mode.POSSESSIVE &&
+                (repeat.max == RegexNode.UNBOUNDED || repeat.max >= LARGE_REPEAT);
+    }
+
+    /**
+     * @return A repeat inside loop which can consume chars that could also
+     * start the next thing after it (up to and including the loop going
+     * around again), or null if there isn't one.
+     */
+    private String findNestedAmbiguity(RegexNode loop, RegexNode node) {
+        if (node.type == RegexNode.Type.GROUP && (node.groupType.isLookaround() ||
+                node.groupType == RegexNode.GroupType.ATOMIC)) return null;
+        if (node.type == RegexNode.Type.REPEAT && node.mode != RegexNode.Mode.POSSESSIVE &&
+                node.max != 1 && node.max != node.min) {
+            if (consumes(node).intersects(follow(node, loop).chars)) return node.getSource();
+        }
+        for (RegexNode child : node.children) {
+            String found = findNestedAmbiguity(loop, child);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    private String findOverlappingAlternatives(RegexNode node) {
+        if (node.type == RegexNode.Type.GROUP && (node.groupType.isLookaround() ||
+                node.groupType == RegexNode.GroupType.ATOMIC)) return null;
+        if (node.type == RegexNode.Type.REPEAT && node.mode == RegexNode.Mode.POSSESSIVE) return null;
+        if (node.type == RegexNode.Type.ALTERNATION) {
+            List<RegexNode> branches = node.children;
+            for (int i = 0; i < branches.size(); i++) {
+                for (int j = i + 1; j < branches.size(); j++) {
+                    if (canMatchSameText(branches.get(i), branches.get(j))) {
+                        return branches.get(i).getSource() + "|" + branches.get(j).getSource();
+                    }
+                }
+            }
+        }
+        for (RegexNode child : node.children) {
+            String found = findOverlappingAlternatives(child);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    /**
+     * Only simple branches are compared: fixed sequences of chars (eg: ab,
+     * [a-z]x) and runs of one char class (eg: \w+).
+     */
+    private static boolean canMatchSameText(RegexNode a, RegexNode b) {
+        List<CharClass> fixedA = fixedShape(a);
+        List<CharClass> fixedB = fixedShape(b);
+        RegexNode runA = stripGroups(a);
+        RegexNode runB = stripGroups(b);
+        CharClass runCharsA = (runA.type == RegexNode.Type.REPEAT) ? runChars(runA) : null;
+        CharClass runCharsB = (runB.type == RegexNode.Type.REPEAT) ? runChars(runB) : null;
+
+        if (fixedA != null && fixedB != null) {
+            if (fixedA.size() != fixedB.size() || fixedA.isEmpty()) return false;
+            for (int i = 0; i < fixedA.size(); i++) {
+                if (!fixedA.get(i).intersects(fixedB.get(i))) return false;
+            }
+            return true;
+        }
+        if (runCharsA != null && runCharsB != null) return runCharsA.intersects(runCharsB);
+        if (runCharsA != null && fixedB != null) return runCovers(runA, runCharsA, fixedB);
+        if (runCharsB != null && fixedA != null) return runCovers(runB, runCharsB, fixedA);
+        return false;
+    }
+
+    private static boolean runCovers(RegexNode run, CharClass chars, List<CharClass> fixed) {
+        if (fixed.isEmpty() || fixed.size() < run.min) return false;
+        if (run.max != RegexNode.UNBOUNDED && fixed.size() > run.max) return false;
+        for (CharClass c : fixed) {
+            if (!c.intersects(chars)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The chars of a node that always matches the same number of
+     * chars, one from each class, or null.
+     */
+    private static List<CharClass> fixedShape(RegexNode node) {
+        List<CharClass> shape = new ArrayList<CharClass>();
+        return addFixedShape(node, shape) ? shape : null;
+    }
+
+    private static boolean addFixedShape(RegexNode node, List<CharClass> shape) {
+        switch (node.type) {
+            case EMPTY:
+                return true;
+            case CHARS:
+                shape.add(node.chars);
+                return true;
+            case GROUP:
+                return !node.groupType.isLookaround() && addFixedShape(node.getChild(), shape);
+            case SEQUENCE:
+                for (RegexNode child : node.children) {
+                    if (!addFixedShape(child, shape)) return false;
+                }
+                return true;
+            case REPEAT:
+                if (node.min != node.max || node.min > LARGE_REPEAT) return false;
+                for (int i = 0; i < node.min; i++) {
+                    if (!addFixedShape(node.getChild(), shape)) return false;
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Quantifiers next to each other, with nothing they must consume in
+     * between, can split the same text in O(n^2) ways or worse.
+     */
+    private static String findAdjacentOverlap(RegexNode sequence) {
+        List<RegexNode> children = sequence.children;
+        for (int i = 0; i < children.size(); i++) {
+            RegexNode first = children.get(i);
+            if (!isUnboundedRun(first)) continue;
+            CharClass chars = consumes(first);
+            for (int j = i + 1; j < children.size(); j++) {
+                RegexNode next = children.get(j);
+                if (isUnboundedRun(next) && consumes(next).intersects(chars)) {
+                    return first.getSource() + " and " + next.getSource();
+                }
+                if (!first(next).nullable) break;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isUnboundedRun(RegexNode node) {
+        return node.type == RegexNode.Type.REPEAT && node.mode != RegexNode.Mode.POSSESSIVE &&
+                node.max == RegexNode.UNBOUNDED;
+    }
+
+    /* Char sets */
+
+    /**
+     * What can be consumed first by a node: the chars, whether it can match
+     * without consuming anything, and whether that involves a zero-width
+     * test (assertion, lookaround, etc.) that might fail.
+     */
+    private static class First {
+        CharClass chars = CharClass.EMPTY;
+        boolean nullable = true;
+        boolean zeroWidth = false;
+
+        First() {}
+
+        First(CharClass chars, boolean nullable, boolean zeroWidth) {
+            this.chars = chars;
+            this.nullable = nullable;
+            this.zeroWidth = zeroWidth;
+        }
+
+        /**
+         * Add what comes after this, if this can match empty.
+         */
+        void then(First next) {
+            if (!nullable) return;
+            chars = chars.union(next.chars);
+            nullable = next.nullable;
+            zeroWidth |= next.zeroWidth;
+        }
+    }
+
+    private static First first(RegexNode node) {
+        switch (node.type) {
+            case EMPTY:
+                return new First();
+            case ASSERTION:
+                return new First(CharClass.EMPTY, true, true);
+            case CHARS:
+                return new First(node.chars, false, false);
+            case GROUP:
+                if (node.groupType.isLookaround()) return new First(CharClass.EMPTY, true, true);
+                return first(node.getChild());
+            case SEQUENCE: {
+                First result = new First();
+                for (RegexNode child : node.children) {
+                    result.then(first(child));
+                    if (!result.nullable) break;
+                }
+                return result;
+            }
+            case ALTERNATION: {
+                First result = new First(CharClass.EMPTY, false, false);
+                for (RegexNode child : node.children) {
+                    First f = first(child);
+                    result.chars = result.chars.union(f.chars);
+                    result.nullable |= f.nullable;
+                    result.zeroWidth |= f.zeroWidth;
+                }
+                return result;
+            }
+            case REPEAT: {
+                First f = first(node.getChild());
+                if (node.min == 0) f.nullable = true;
+                return f;
+            }
+            default:
+                // Backreferences, and anything we don't model.
+                return new First(CharClass.ANY, true, true);
+        }
+    }
+
+    /**
+     * @return Every char that a node could consume.
+     */
+    private static CharClass consumes(RegexNode node) {
+        switch (node.type) {
+            case EMPTY:
+            case ASSERTION:
+                return CharClass.EMPTY;
+            case CHARS:
+                return node.chars;
+            case BACKREF:
+            case OPAQUE:
+                return CharClass.ANY;
+            default:
+                if (node.type == RegexNode.Type.GROUP && node.groupType.isLookaround()) return CharClass.EMPTY;
+                CharClass result = CharClass.EMPTY;
+                for (RegexNode child : node.children) {
+                    result = result.union(consumes(child));
+                }
+                return result;
+        }
+    }
+
+    /**
+     * Work out what can be consumed after node has matched.
+     *
+     * @param node The node
+     * @param loop If not null, stop after going around this enclosing repeat
+     *             once, instead of working out the whole rest of the pattern.
+     * @return What could come next.  nullable means the end of the pattern
+     * (or of loop) can be reached without consuming anything.
+     */
+    private First follow(RegexNode node, RegexNode loop) {
+        First result = new First();
+        RegexNode child = node;
+        RegexNode parent = parents.get(child);
+        while (parent != null) {
+            switch (parent.type) {
+                case SEQUENCE:
+                    int i = indexOf(parent.children, child);
+                    for (int j = i + 1; j < parent.children.size() && result.nullable; j++) {
+                        result.then(first(parent.children.get(j)));
+                    }
+                    break;
+                case GROUP:
+                    if (parent.groupType.isLookaround()) {
+                        // We never get here, but be safe.
+                        return new First(CharClass.ANY, true, true);
+                    }
+                    break;
+                case REPEAT:
+                    // The loop may go around again
+                    if (parent.max != 1 && result.nullable) {
+                        First again = first(parent.getChild());
+                        result.chars = result.chars.union(again.chars);
+                        result.zeroWidth |= again.zeroWidth;
+                    }
+                    if (parent == loop) return result;
+                    break;
+                default:
+            }
+            if (!result.nullable) return result;
+            child = parent;
+            parent = parents.get(child);
+        }
+        return result;
+    }
+
+    private static int indexOf(List<RegexNode> list, RegexNode node) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == node) return i;
+        }
+        return -1;
+    }
+}
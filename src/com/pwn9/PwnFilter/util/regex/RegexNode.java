@@ -0,0 +1,166 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node in the syntax tree of a parsed java.util.regex pattern.
+ * <p/>
+ * The tree is produced by {@link RegexParser}, and is used to analyse rule
+ * patterns (literal extraction, automaton compilation, etc.)  Constructs that
+ * we don't model exactly (eg: \p{Lu}, \X, [a&&b]) are kept as OPAQUE nodes,
+ * so the tree can still be walked, but consumers must treat them as unknown.
+ */
+public final class RegexNode {
+
+    public enum Type {
+        EMPTY,       // Matches the empty string
+        CHARS,       // Matches one char from a CharClass
+        SEQUENCE,    // Children matched one after another
+        ALTERNATION, // One of the children
+        GROUP,       // (...) of any GroupType
+        REPEAT,      // child{min,max}
+        ASSERTION,   // Zero-width anchors and boundaries
+        BACKREF,     // \1, \k<name>
+        OPAQUE       // Anything we don't model.
+    }
+
+    public enum GroupType {
+        CAPTURING, NON_CAPTURING, ATOMIC,
+        LOOKAHEAD, NEGATIVE_LOOKAHEAD, LOOKBEHIND, NEGATIVE_LOOKBEHIND;
+
+        public boolean isLookaround() {
+            return this == LOOKAHEAD || this == NEGATIVE_LOOKAHEAD ||
+                    this == LOOKBEHIND || this == NEGATIVE_LOOKBEHIND;
+        }
+    }
+
+    public enum Assertion {
+        BEGIN_INPUT,          // \A, or ^ without MULTILINE
+        END_INPUT,            // \z
+        END_INPUT_TERMINATOR, // \Z, or $ without MULTILINE
+        BEGIN_LINE,           // ^ with MULTILINE
+        END_LINE,             // $ with MULTILINE
+        WORD_BOUNDARY,        // \b
+        NON_WORD_BOUNDARY,    // \B
+        LAST_MATCH_END        // \G
+    }
+
+    public enum Mode {
+        GREEDY, LAZY, POSSESSIVE
+    }
+
+    public static final int UNBOUNDED = -1;
+
+    final Type type;
+    final List<RegexNode> children;
+    final String source;  // The whole pattern this node was parsed from
+    final int start, end; // Position of this node in the source
+
+    // CHARS
+    CharClass chars;
+    int literal = -1;          // The char, if this node is a single literal char
+    boolean caseInsensitive;
+
+    // GROUP
+    GroupType groupType;
+    int groupNumber;           // Also used by BACKREF
+
+    // REPEAT
+    int min, max;
+    Mode mode;
+
+    // ASSERTION
+    Assertion assertion;
+
+    RegexNode(Type type, String source, int start, int end) {
+        this.type = type;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.children = new ArrayList<RegexNode>(2);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public List<RegexNode> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public RegexNode getChild() {
+        return children.get(0);
+    }
+
+    /**
+     * @return The set of chars this node matches, with case-insensitivity
+     * already applied.
+     */
+    public CharClass getChars() {
+        return chars;
+    }
+
+    public int getLiteral() {
+        return literal;
+    }
+
+    public boolean isCaseInsensitive() {
+        return caseInsensitive;
+    }
+
+    public GroupType getGroupType() {
+        return groupType;
+    }
+
+    public int getGroupNumber() {
+        return groupNumber;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Assertion getAssertion() {
+        return assertion;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The part of the original pattern that this node was parsed from.
+     */
+    public String getSource() {
+        return source.substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + getSource();
+    }
+}
@@ -0,0 +1,638 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Parse a java.util.regex pattern string into a tree of {@link RegexNode}s.
+ * <p/>
+ * This parser is only ever fed patterns that have already been compiled by
+ * java.util.regex.Pattern, so it doesn't try hard to report syntax errors.
+ * Instead, it throws a PatternSyntaxException for anything it can't model
+ * faithfully (COMMENTS / UNICODE_CASE flags, etc.), and the caller should
+ * then treat the pattern as a black box.
+ */
+public class RegexParser {
+
+    private static final int SUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL;
+
+    private final String re;
+    private int pos;
+    private int flags;
+    private int groupCount;
+
+    private RegexParser(String re, int flags) {
+        this.re = re;
+        this.flags = flags;
+    }
+
+    /**
+     * Parse the pattern.
+     *
+     * @param re    The regex string
+     * @param flags Pattern flags it will be compiled with.  Only CASE_INSENSITIVE,
+     *              MULTILINE and DOTALL are supported.
+     * @return The root node of the parse tree.
+     * @throws PatternSyntaxException if the pattern uses syntax that can't be modelled.
+     */
+    public static RegexNode parse(String re, int flags) throws PatternSyntaxException {
+        if ((flags & ~SUPPORTED_FLAGS) != 0) {
+            throw new PatternSyntaxException("Unsupported flags", re, 0);
+        }
+        RegexParser parser = new RegexParser(re, flags);
+        RegexNode root = parser.parseAlternation();
+        if (parser.pos < re.length()) {
+            throw parser.error("Unmatched ')'");
+        }
+        return root;
+    }
+
+    private PatternSyntaxException error(String desc) {
+        return new PatternSyntaxException(desc, re, pos);
+    }
+
+    private boolean more() {
+        return pos < re.length();
+    }
+
+    private char peek() {
+        return re.charAt(pos);
+    }
+
+    private boolean lookingAt(String s) {
+        return re.startsWith(s, pos);
+    }
+
+    private boolean ci() {
+        return (flags & Pattern.CASE_INSENSITIVE) != 0;
+    }
+
+    /* Grammar */
+
+    private RegexNode parseAlternation() {
+        int start = pos;
+        RegexNode first = parseSequence();
+        if (!more() || peek() != '|') return first;
+
+        RegexNode alt = new RegexNode(RegexNode.Type.ALTERNATION, re, start, start);
+        alt.children.add(first);
+        while (more() && peek() == '|') {
+            pos++;
+            alt.children.add(parseSequence());
+        }
+        return finish(alt);
+    }
+
+    private RegexNode parseSequence() {
+        int start = pos;
+        RegexNode seq = new RegexNode(RegexNode.Type.SEQUENCE, re, start, start);
+
+        while (more() && peek() != '|' && peek() != ')') {
+            if (lookingAt("\\Q")) {
+                // Quoted text.  Each char is its own atom, so that a
+                // following quantifier only applies to the last one.
+                pos += 2;
+                int end = re.indexOf("\\E", pos);
+                if (end < 0) end = re.length();
+                while (pos < end) {
+                    seq.children.add(literal(pos, pos + 1, re.charAt(pos)));
+                    pos++;
+                }
+                pos = Math.min(re.length(), end + 2);
+                if (!seq.children.isEmpty()) {
+                    int last = seq.children.size() - 1;
+                    seq.children.set(last, parseQuantifier(seq.children.get(last)));
+                }
+                continue;
+            }
+            RegexNode atom = parseAtom();
+            if (atom == null) continue; // eg: an inline flag group
+            seq.children.add(parseQuantifier(atom));
+        }
+
+        if (seq.children.size() == 1) return seq.children.get(0);
+        if (seq.children.isEmpty()) return finish(new RegexNode(RegexNode.Type.EMPTY, re, start, start));
+        return finish(seq);
+    }
+
+    private RegexNode finish(RegexNode node) {
+        return copyWithEnd(node, pos);
+    }
+
+    private RegexNode copyWithEnd(RegexNode node, int end) {
+        if (node.end == end) return node;
+        RegexNode copy = new RegexNode(node.type, re, node.start, end);
+        copy.children.addAll(node.children);
+        copy.chars = node.chars;
+        copy.literal = node.literal;
+        copy.caseInsensitive = node.caseInsensitive;
+        copy.groupType = node.groupType;
+        copy.groupNumber = node.groupNumber;
+        copy.min = node.min;
+        copy.max = node.max;
+        copy.mode = node.mode;
+        copy.assertion = node.assertion;
+        return copy;
+    }
+
+    private RegexNode parseQuantifier(RegexNode atom) {
+        if (!more()) return atom;
+        int min, max;
+        int qStart = pos;
+        char c = peek();
+        switch (c) {
+            case '?':
+                min = 0;
+                max = 1;
+                pos++;
+                break;
+            case '*':
+                min = 0;
+                max = RegexNode.UNBOUNDED;
+                pos++;
+                break;
+            case '+':
+                min = 1;
+                max = RegexNode.UNBOUNDED;
+                pos++;
+                break;
+            case '{':
+                pos++;
+                min = parseInt();
+                if (min < 0) throw error("Illegal repetition");
+                if (more() && peek() == ',') {
+                    pos++;
+                    if (more() && peek() == '}') {
+                        max = RegexNode.UNBOUNDED;
+                    } else {
+                        max = parseInt();
+                        if (max < min) throw error("Illegal repetition range");
+                    }
+                } else {
+                    max = min;
+                }
+                if (!more() || peek() != '}') throw error("Unclosed counted closure");
+                pos++;
+                break;
+            default:
+                return atom;
+        }
+        RegexNode.Mode mode = RegexNode.Mode.GREEDY;
+        if (more() && peek() == '?') {
+            mode = RegexNode.Mode.LAZY;
+            pos++;
+        } else if (more() && peek() == '+') {
+            mode = RegexNode.Mode.POSSESSIVE;
+            pos++;
+        }
+        if (pos == qStart) return atom;
+
+        RegexNode repeat = new RegexNode(RegexNode.Type.REPEAT, re, atom.start, pos);
+        repeat.children.add(atom);
+        repeat.min = min;
+        repeat.max = max;
+        repeat.mode = mode;
+        return repeat;
+    }
+
+    private int parseInt() {
+        int start = pos;
+        long value = 0;
+        while (more() && peek() >= '0' && peek() <= '9') {
+            value = value * 10 + (peek() - '0');
+            if (value > Integer.MAX_VALUE) throw error("Number too large");
+            pos++;
+        }
+        return (pos == start) ? -1 : (int) value;
+    }
+
+    /**
+     * @return the next atom, or null if the construct consumed was zero-width
+     * and has no meaning in the tree (eg: an inline flag group).
+     */
+    private RegexNode parseAtom() {
+        int start = pos;
+        char c = peek();
+        switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                pos++;
+                return charsNode(start, parseClass(), false);
+            case '.':
+                pos++;
+                return charsNode(start, ((flags & Pattern.DOTALL) != 0) ? CharClass.ANY : CharClass.DOT, false);
+            case '^':
+                pos++;
+                return assertion(start, ((flags & Pattern.MULTILINE) != 0) ?
+                        RegexNode.Assertion.BEGIN_LINE : RegexNode.Assertion.BEGIN_INPUT);
+            case '$':
+                pos++;
+                return assertion(start, ((flags & Pattern.MULTILINE) != 0) ?
+                        RegexNode.Assertion.END_LINE : RegexNode.Assertion.END_INPUT_TERMINATOR);
+            case '\\':
+                return parseEscape();
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw error("Dangling meta character '" + c + "'");
+            default:
+                pos++;
+                if (Character.isHighSurrogate(c) && more() && Character.isLowSurrogate(peek())) {
+                    // A supplementary code point.  We only model UTF-16 units.
+                    pos++;
+                    return new RegexNode(RegexNode.Type.OPAQUE, re, start, pos);
+                }
+                return literal(start, pos, c);
+        }
+    }
+
+    private RegexNode literal(int start, int end, char c) {
+        RegexNode node = new RegexNode(RegexNode.Type.CHARS, re, start, end);
+        node.literal = c;
+        node.caseInsensitive = ci();
+        node.chars = ci() ? CharClass.of(c).asciiCaseInsensitive() : CharClass.of(c);
+        return node;
+    }
+
+    private RegexNode charsNode(int start, CharClass chars, boolean applyCase) {
+        if (chars == null) return new RegexNode(RegexNode.Type.OPAQUE, re, start, pos);
+        RegexNode node = new RegexNode(RegexNode.Type.CHARS, re, start, pos);
+        node.caseInsensitive = ci();
+        node.chars = (applyCase && ci()) ? chars.asciiCaseInsensitive() : chars;
+        int single = chars.singleChar();
+        if (single >= 0 && applyCase) node.literal = single;
+        return node;
+    }
+
+    private RegexNode assertion(int start, RegexNode.Assertion a) {
+        RegexNode node = new RegexNode(RegexNode.Type.ASSERTION, re, start, pos);
+        node.assertion = a;
+        return node;
+    }
+
+    private RegexNode parseGroup() {
+        int start = pos;
+        pos++; // (
+        RegexNode.GroupType type = RegexNode.GroupType.CAPTURING;
+        int savedFlags = flags;
+
+        if (lookingAt("?")) {
+            pos++;
+            if (lookingAt(":")) {
+                pos++;
+                type = RegexNode.GroupType.NON_CAPTURING;
+            } else if (lookingAt("=")) {
+                pos++;
+                type = RegexNode.GroupType.LOOKAHEAD;
+            } else if (lookingAt("!")) {
+                pos++;
+                type = RegexNode.GroupType.NEGATIVE_LOOKAHEAD;
+            } else if (lookingAt(">")) {
+                pos++;
+                type = RegexNode.GroupType.ATOMIC;
+            } else if (lookingAt("<=")) {
+                pos += 2;
+                type = RegexNode.GroupType.LOOKBEHIND;
+            } else if (lookingAt("<!")) {
+                pos += 2;
+                type = RegexNode.GroupType.NEGATIVE_LOOKBEHIND;
+            } else if (lookingAt("<")) {
+                // Named group
+                int close = re.indexOf('>', pos);
+                if (close < 0) throw error("Named capturing group is missing trailing '>'");
+                pos = close + 1;
+            } else {
+                // Inline flags: (?idms-idms) or (?idms-idms:X)
+                boolean on = true;
+                while (more() && peek() != ')' && peek() != ':') {
+                    char f = peek();
+                    int bit;
+                    switch (f) {
+                        case 'i':
+                            bit = Pattern.CASE_INSENSITIVE;
+                            break;
+                        case 'm':
+                            bit = Pattern.MULTILINE;
+                            break;
+                        case 's':
+                            bit = Pattern.DOTALL;
+                            break;
+                        case '-':
+                            on = false;
+                            pos++;
+                            continue;
+                        default:
+                            throw error("Unsupported inline flag '" + f + "'");
+                    }
+                    flags = on ? (flags | bit) : (flags & ~bit);
+                    pos++;
+                }
+                if (!more()) throw error("Unknown inline modifier");
+                if (peek() == ')') {
+                    // (?i) applies until the end of the enclosing group.
+                    pos++;
+                    return null;
+                }
+                pos++; // :
+                type = RegexNode.GroupType.NON_CAPTURING;
+            }
+        }
+
+        RegexNode group = new RegexNode(RegexNode.Type.GROUP, re, start, start);
+        group.groupType = type;
+        if (type == RegexNode.GroupType.CAPTURING) group.groupNumber = ++groupCount;
+
+        group.children.add(parseAlternation());
+        if (!more() || peek() != ')') throw error("Unclosed group");
+        pos++;
+        flags = savedFlags;
+        return finish(group);
+    }
+
+    private RegexNode parseEscape() {
+        int start = pos;
+        pos++; // backslash
+        if (!more()) throw error("Unexpected internal error");
+        char c = peek();
+        pos++;
+        switch (c) {
+            case 'b':
+                return assertion(start, RegexNode.Assertion.WORD_BOUNDARY);
+            case 'B':
+                return assertion(start, RegexNode.Assertion.NON_WORD_BOUNDARY);
+            case 'A':
+                return assertion(start, RegexNode.Assertion.BEGIN_INPUT);
+            case 'z':
+                return assertion(start, RegexNode.Assertion.END_INPUT);
+            case 'Z':
+                return assertion(start, RegexNode.Assertion.END_INPUT_TERMINATOR);
+            case 'G':
+                return assertion(start, RegexNode.Assertion.LAST_MATCH_END);
+            case 'k': {
+                if (!lookingAt("<")) throw error("\\k is not followed by '<'");
+                int close = re.indexOf('>', pos);
+                if (close < 0) throw error("named capturing group is missing trailing '>'");
+                pos = close + 1;
+                // We don't track group names, so we can't resolve the number.
+                RegexNode node = new RegexNode(RegexNode.Type.BACKREF, re, start, pos);
+                node.groupNumber = -1;
+                return node;
+            }
+            case 'R':
+            case 'X':
+            case 'N':
+                // Linebreak matcher, grapheme cluster and named chars
+                // aren't single UTF-16 units.
+                if (c == 'N') skipBraces();
+                return new RegexNode(RegexNode.Type.OPAQUE, re, start, pos);
+            default:
+        }
+        if (c >= '1' && c <= '9') {
+            // Back reference.  Java keeps consuming digits as long as the
+            // group exists.
+            int number = c - '0';
+            while (more() && peek() >= '0' && peek() <= '9') {
+                int next = number * 10 + (peek() - '0');
+                if (next > groupCount) break;
+                number = next;
+                pos++;
+            }
+            RegexNode node = new RegexNode(RegexNode.Type.BACKREF, re, start, pos);
+            node.groupNumber = number;
+            return node;
+        }
+        pos = start;
+        return charsNode(start, parseEscapedChars(), true);
+    }
+
+    private void skipBraces() {
+        if (lookingAt("{")) {
+            int close = re.indexOf('}', pos);
+            pos = (close < 0) ? re.length() : close + 1;
+        }
+    }
+
+    /**
+     * Parse an escape sequence that stands for a set of chars, either inside
+     * or outside a character class.  pos must point at the backslash.
+     *
+     * @return The CharClass, or null if it's something we don't model.
+     */
+    private CharClass parseEscapedChars() {
+        pos++; // backslash
+        char c = re.charAt(pos++);
+        switch (c) {
+            case 'd':
+                return CharClass.DIGIT;
+            case 'D':
+                return CharClass.DIGIT.complement();
+            case 'w':
+                return CharClass.WORD;
+            case 'W':
+                return CharClass.WORD.complement();
+            case 's':
+                return CharClass.SPACE;
+            case 'S':
+                return CharClass.SPACE.complement();
+            case 't':
+                return CharClass.of('\t');
+            case 'n':
+                return CharClass.of('\n');
+            case 'r':
+                return CharClass.of('\r');
+            case 'f':
+                return CharClass.of('\f');
+            case 'a':
+                return CharClass.of('\u0007');
+            case 'e':
+                return CharClass.of('\u001B');
+            case 'c':
+                if (!more()) throw error("Illegal control escape sequence");
+                return CharClass.of((char) (re.charAt(pos++) ^ 64));
+            case '0': {
+                // Octal: \0n, \0nn or \0mnn (m <= 3)
+                int value = 0;
+                int digits = 0;
+                int maxDigits = (more() && peek() <= '3') ? 3 : 2;
+                while (digits < maxDigits && more() && peek() >= '0' && peek() <= '7') {
+                    value = value * 8 + (peek() - '0');
+                    pos++;
+                    digits++;
+                }
+                if (digits == 0) throw error("Illegal octal escape sequence");
+                return CharClass.of((char) value);
+            }
+            case 'x': {
+                if (lookingAt("{")) {
+                    int close = re.indexOf('}', pos);
+                    if (close < 0) throw error("Unclosed hexadecimal escape sequence");
+                    int cp = Integer.parseInt(re.substring(pos + 1, close), 16);
+                    pos = close + 1;
+                    return (cp > Character.MAX_VALUE) ? null : CharClass.of((char) cp);
+                }
+                if (pos + 2 > re.length()) throw error("Illegal hexadecimal escape sequence");
+                int value = Integer.parseInt(re.substring(pos, pos + 2), 16);
+                pos += 2;
+                return CharClass.of((char) value);
+            }
+            case 'u': {
+                if (pos + 4 > re.length()) throw error("Illegal Unicode escape sequence");
+                int value = Integer.parseInt(re.substring(pos, pos + 4), 16);
+                pos += 4;
+                return CharClass.of((char) value);
+            }
+            case 'p':
+            case 'P':
+                // Unicode/POSIX property classes
+                if (lookingAt("{")) skipBraces();
+                else pos++;
+                return null;
+            case 'h':
+            case 'H':
+            case 'v':
+            case 'V':
+                // Only exist in newer Java versions.
+                return null;
+            default:
+                if (Character.isLetterOrDigit(c)) throw error("Illegal/unsupported escape sequence");
+                // Escaped punctuation stands for itself.
+                return CharClass.of(c);
+        }
+    }
+
+    /**
+     * Parse a character class.  pos points just past the opening '['.
+     *
+     * @return The CharClass (without case-insensitivity applied), or null if
+     * the class contains something we don't model.
+     */
+    private CharClass parseClass() {
+        boolean negate = false;
+        if (more() && peek() == '^') {
+            negate = true;
+            pos++;
+        }
+        CharClass result = CharClass.EMPTY;
+        boolean opaque = false;
+        boolean first = true;
+
+        while (true) {
+            if (!more()) throw error("Unclosed character class");
+            char c = peek();
+            if (c == ']' && !first) {
+                pos++;
+                break;
+            }
+            first = false;
+            if (c == '[') {
+                pos++;
+                CharClass nested = parseClass();
+                // Java 9 negates a nested class along with the rest of
+                // [^...], but Java 7 and 8 don't, so we can't say which.
+                if (nested == null || negate) opaque = true;
+                else result = result.union(nested);
+                continue;
+            }
+            if (lookingAt("&&")) {
+                // Intersections have odd precedence rules; skip the rest of
+                // the class and treat it as unknown.
+                opaque = true;
+                pos += 2;
+                skipClassRemainder();
+                break;
+            }
+            if (lookingAt("\\Q")) {
+                pos += 2;
+                int end = re.indexOf("\\E", pos);
+                if (end < 0) end = re.length();
+                while (pos < end) {
+                    result = result.union(CharClass.of(re.charAt(pos++)));
+                }
+                pos = Math.min(re.length(), end + 2);
+                continue;
+            }
+
+            // A single char, escape, or range.
+            int lo = parseClassChar();
+            CharClass single = null;
+            if (lo == -2) {
+                // A multi-char escape, like \w.  Can't be a range endpoint.
+                single = lastClassEscape;
+            } else if (more() && peek() == '-' && pos + 1 < re.length() && re.charAt(pos + 1) != ']'
+                    && re.charAt(pos + 1) != '[') {
+                pos++; // -
+                int hi = parseClassChar();
+                if (hi < 0 || lo < 0) {
+                    opaque = true;
+                } else {
+                    if (hi < lo) throw error("Illegal character range");
+                    result = result.union(CharClass.range((char) lo, (char) hi));
+                }
+                continue;
+            } else if (lo >= 0) {
+                single = CharClass.of((char) lo);
+            }
+            if (single == null) {
+                opaque = true;
+            } else {
+                result = result.union(single);
+            }
+        }
+
+        if (opaque) return null;
+        // Java applies case-insensitivity before negating the class, so
+        // [^a] doesn't match 'A'.
+        if (ci()) result = result.asciiCaseInsensitive();
+        return negate ? result.complement() : result;
+    }
+
+    private CharClass lastClassEscape;
+
+    /**
+     * @return the char at pos (consuming it), -2 if it was a multi-char
+     * escape (stored in lastClassEscape), or -1 if we can't model it.
+     */
+    private int parseClassChar() {
+        char c = peek();
+        if (c == '\\') {
+            CharClass cc = parseEscapedChars();
+            if (cc == null) return -1;
+            int single = cc.singleChar();
+            if (single >= 0) return single;
+            lastClassEscape = cc;
+            return -2;
+        }
+        pos++;
+        if (Character.isHighSurrogate(c) && more() && Character.isLowSurrogate(peek())) {
+            pos++;
+            return -1;
+        }
+        return c;
+    }
+
+    private void skipClassRemainder() {
+        int depth = 1;
+        while (more() && depth > 0) {
+            char c = peek();
+            if (c == '\\') {
+                pos += 2;
+                continue;
+            }
+            if (c == '[') depth++;
+            else if (c == ']') depth--;
+            pos++;
+        }
+    }
+}
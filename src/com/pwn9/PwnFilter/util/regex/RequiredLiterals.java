@@ -0,0 +1,258 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Work out a set of literal strings, at least one of which must appear in any
+ * text that a regex can match.
+ * <p/>
+ * For example, "\bfag+(s)?\b|fag+.t" requires "fa", and "(i hate|fuck)+ this server"
+ * requires one of "i hate", "fuck" or " this server" (we pick the best one).
+ * <p/>
+ * All literals are lower-cased with Character.toLowerCase(), and must be
+ * searched for the same way.  This errs on the side of returning candidates
+ * that the real regex won't match, which is fine for a prefilter.
+ */
+public class RequiredLiterals {
+
+    // Don't let alternations / small classes blow up the number of strings.
+    private static final int MAX_STRINGS = 32;
+    private static final int MAX_CLASS_SIZE = 4;
+    private static final int MAX_EXPANDED_REPEAT = 3;
+
+    private RequiredLiterals() {}
+
+    /**
+     * @param re    The regex string
+     * @param flags The flags it is compiled with.
+     * @return A set of lower-cased strings, one of which must be present for
+     * the pattern to match, or null if no such set could be found.
+     */
+    public static Set<String> of(String re, int flags) {
+        try {
+            return of(RegexParser.parse(re, flags));
+        } catch (PatternSyntaxException ex) {
+            return null;
+        }
+    }
+
+    public static Set<String> of(RegexNode root) {
+        return minimise(analyse(root).required);
+    }
+
+    /**
+     * What we know about a node.  A set containing "" tells us nothing.
+     * exact: The node matches exactly one of these strings (or null if unknown)
+     * prefix: Every match starts with one of these strings
+     * suffix: Every match ends with one of these strings
+     * required: One of these strings must be present (or null if unknown)
+     */
+    private static class Info {
+        final Set<String> exact;
+        final Set<String> prefix;
+        final Set<String> suffix;
+        final Set<String> required;
+
+        Info(Set<String> exact, Set<String> prefix, Set<String> suffix, Set<String> required) {
+            this.exact = exact;
+            this.prefix = (prefix == null) ? emptyString() : prefix;
+            this.suffix = (suffix == null) ? emptyString() : suffix;
+            this.required = required;
+        }
+    }
+
+    private static final Info UNKNOWN = new Info(null, null, null, null);
+
+    private static Set<String> emptyString() {
+        Set<String> s = new HashSet<String>();
+        s.add("");
+        return s;
+    }
+
+    private static Info exactly(Set<String> strings) {
+        return new Info(strings, strings, strings, usable(strings) ? strings : null);
+    }
+
+    private static boolean usable(Set<String> strings) {
+        return strings != null && !strings.isEmpty() && !strings.contains("");
+    }
+
+    private static Info analyse(RegexNode node) {
+        switch (node.type) {
+            case EMPTY:
+            case ASSERTION:
+                return exactly(emptyString());
+            case CHARS:
+                return analyseChars(node.chars);
+            case GROUP:
+                // Lookarounds are zero-width, so they don't break up a literal,
+                // but we can't rely on anything inside them either.
+                if (node.groupType.isLookaround()) return exactly(emptyString());
+                return analyse(node.getChild());
+            case SEQUENCE:
+                return analyseSequence(node.children);
+            case ALTERNATION:
+                return analyseAlternation(node.children);
+            case REPEAT:
+                return analyseRepeat(node);
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private static Info analyseChars(CharClass chars) {
+        if (chars.size() > MAX_CLASS_SIZE * 2) return UNKNOWN;
+        Set<String> strings = new HashSet<String>();
+        for (int i = 0; i < chars.rangeCount(); i++) {
+            for (int c = chars.rangeStart(i); c <= chars.rangeEnd(i); c++) {
+                strings.add(String.valueOf(Character.toLowerCase((char) c)));
+            }
+        }
+        if (strings.size() > MAX_CLASS_SIZE || strings.isEmpty()) return UNKNOWN;
+        return exactly(strings);
+    }
+
+    private static Info analyseSequence(List<RegexNode> children) {
+        List<Set<String>> candidates = new ArrayList<Set<String>>();
+        Set<String> tail = emptyString(); // The text so far ends with one of these
+        Set<String> prefix = null;        // Known once we hit a non-exact child
+
+        for (RegexNode child : children) {
+            Info info = analyse(child);
+            Set<String> next = (info.exact != null) ? info.exact : info.prefix;
+            Set<String> joined = cross(tail, next);
+            if (joined == null) {
+                // Too many combinations.  Close off this run, and start again.
+                candidates.add(tail);
+                joined = next;
+                if (prefix == null) prefix = tail;
+            }
+            if (info.exact != null) {
+                tail = joined;
+            } else {
+                candidates.add(joined);
+                if (prefix == null) prefix = joined;
+                if (info.required != null) candidates.add(info.required);
+                tail = info.suffix;
+            }
+        }
+        candidates.add(tail);
+
+        if (prefix == null) return exactly(tail);
+        return new Info(null, prefix, tail, best(candidates));
+    }
+
+    private static Info analyseAlternation(List<RegexNode> children) {
+        Set<String> exact = new HashSet<String>();
+        Set<String> prefix = new HashSet<String>();
+        Set<String> suffix = new HashSet<String>();
+        Set<String> required = new HashSet<String>();
+        for (RegexNode child : children) {
+            Info info = analyse(child);
+            if (exact != null) {
+                if (info.exact == null) exact = null;
+                else exact.addAll(info.exact);
+            }
+            if (required != null) {
+                if (info.required == null) required = null;
+                else required.addAll(info.required);
+            }
+            prefix.addAll(info.prefix);
+            suffix.addAll(info.suffix);
+        }
+        if (exact != null && exact.size() > MAX_STRINGS) exact = null;
+        if (exact != null) return exactly(exact);
+        if (required != null && required.size() > MAX_STRINGS) required = null;
+        if (prefix.size() > MAX_STRINGS) prefix = null;
+        if (suffix.size() > MAX_STRINGS) suffix = null;
+        return new Info(null, prefix, suffix, required);
+    }
+
+    private static Info analyseRepeat(RegexNode node) {
+        Info child = analyse(node.getChild());
+        if (child.exact != null && node.max != RegexNode.UNBOUNDED && node.max <= MAX_EXPANDED_REPEAT) {
+            // eg: colou?r -> color, colour
+            Set<String> exact = new HashSet<String>();
+            Set<String> power = emptyString();
+            for (int i = 0; i <= node.max && power != null; i++) {
+                if (i >= node.min) exact.addAll(power);
+                power = cross(power, child.exact);
+            }
+            if (power != null && exact.size() <= MAX_STRINGS) return exactly(exact);
+        }
+        if (node.min == 0) return UNKNOWN;
+        // eg: f+ starts and ends with f.
+        Set<String> required = (child.required != null) ? child.required :
+                (usable(child.prefix) ? child.prefix : null);
+        return new Info(null, child.prefix, child.suffix, required);
+    }
+
+    /**
+     * @return every string in a followed by every string in b, or null if
+     * there would be too many.
+     */
+    private static Set<String> cross(Set<String> a, Set<String> b) {
+        if ((long) a.size() * b.size() > MAX_STRINGS) return null;
+        Set<String> result = new HashSet<String>();
+        for (String x : a) {
+            for (String y : b) {
+                result.add(x + y);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drop any string which contains a shorter one from the same set, since
+     * finding the shorter one is enough.  eg: [x, xz] -> [x]
+     */
+    private static Set<String> minimise(Set<String> strings) {
+        if (strings == null) return null;
+        Set<String> result = new HashSet<String>();
+        for (String s : strings) {
+            boolean redundant = false;
+            for (String t : strings) {
+                if (!t.equals(s) && s.contains(t)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) result.add(s);
+        }
+        return result;
+    }
+
+    /**
+     * Pick the most selective set: the one with the longest shortest-string,
+     * then the fewest strings.
+     */
+    private static Set<String> best(List<Set<String>> candidates) {
+        Set<String> best = null;
+        int bestLength = 0;
+        for (Set<String> c : candidates) {
+            if (!usable(c)) continue;
+            int minLength = Integer.MAX_VALUE;
+            for (String s : c) minLength = Math.min(minLength, s.length());
+            if (best == null || minLength > bestLength ||
+                    (minLength == bestLength && c.size() < best.size())) {
+                best = c;
+                bestLength = minLength;
+            }
+        }
+        return best;
+    }
+}
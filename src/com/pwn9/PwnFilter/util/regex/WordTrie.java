@@ -0,0 +1,208 @@
+/*
+ * PwnFilter -- Regex-based User Filter Plugin for Bukkit-based Minecraft servers.
+ * Copyright (c) 2013 Pwn9.com. Tremor77 <admin@pwn9.com> & Sage905 <patrick@toal.ca>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ */
+
+package com.pwn9.PwnFilter.util.regex;
+
+import java.util.*;
+
+/**
+ * A case-insensitive list of whole words (or phrases), stored as a compact
+ * trie, which can be used in place of a regex like \b(word1|word2|...)\b.
+ * <p/>
+ * The trie is stored in three flat arrays, with nodes numbered breadth-first
+ * so the children of each node are consecutive: a few bytes per node, instead
+ * of the objects java.util.regex builds for every char of every alternative.
+ * <p/>
+ * A match can only start and end at a word boundary: not between two word
+ * chars (letters, digits or _).  At each position the longest word in the
+ * list is matched.  The trie is walked again from each position on a
+ * boundary, and never further than the longest word, so scanning a message
+ * takes at most its length times the length of the longest word, no matter
+ * how many words there are.
+ * <p/>
+ * Once built, the trie is immutable and safe to share between threads.
+ */
+public final class WordTrie implements MatchEngine {
+
+    private static final int ROOT = 0;
+
+    private final String name;
+    private final char[] labels;     // Char on the edge into each node
+    private final int[] firstChild;  // Children of n are firstChild[n] .. firstChild[n+1]-1
+    private final BitSet terminal;   // Nodes which end a word
+    private final int size;
+
+    private WordTrie(String name, char[] labels, int[] firstChild, BitSet terminal, int size) {
+        this.name = name;
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.terminal = terminal;
+        this.size = size;
+    }
+
+    /**
+     * Build a trie from a list of words.  Leading / trailing whitespace is
+     * ignored, as are empty words and duplicates.
+     *
+     * @param name  What to call this list (eg: the file it came from)
+     * @param words The words to match
+     */
+    public static WordTrie build(String name, Collection<String> words) {
+        TreeSet<String> sorted = new TreeSet<String>();
+        for (String word : words) {
+            word = word.trim();
+            if (word.isEmpty()) continue;
+            char[] chars = word.toCharArray();
+            for (int i = 0; i < chars.length; i++) chars[i] = Character.toLowerCase(chars[i]);
+            sorted.add(new String(chars));
+        }
+        String[] w = sorted.toArray(new String[sorted.size()]);
+
+        int maxNodes = 1;
+        for (String word : w) maxNodes += word.length();
+
+        // Each node covers a range of the sorted words which share the
+        // node's prefix.  Nodes are numbered in the order they are queued.
+        int[] lo = new int[maxNodes], hi = new int[maxNodes], depth = new int[maxNodes];
+        char[] labels = new char[maxNodes];
+        int[] firstChild = new int[maxNodes + 1];
+        BitSet terminal = new BitSet();
+        lo[ROOT] = 0;
+        hi[ROOT] = w.length;
+        int count = 1;
+
+        for (int node = 0; node < count; node++) {
+            int i = lo[node], d = depth[node];
+            // Words are sorted, so a word ending here comes first.
+            if (i < hi[node] && w[i].length() == d) {
+                terminal.set(node);
+                i++;
+            }
+            firstChild[node] = count;
+            while (i < hi[node]) {
+                char c = w[i].charAt(d);
+                int j = i + 1;
+                while (j < hi[node] && w[j].charAt(d) == c) j++;
+                labels[count] = c;
+                lo[count] = i;
+                hi[count] = j;
+                depth[count] = d + 1;
+                count++;
+                i = j;
+            }
+        }
+        firstChild[count] = count;
+
+        return new WordTrie(name, Arrays.copyOf(labels, count), Arrays.copyOf(firstChild, count + 1),
+                terminal, w.length);
+    }
+
+    /**
+     * @return The number of words in the list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of nodes in the trie.
+     */
+    public int nodeCount() {
+        return labels.length;
+    }
+
+    private int child(int node, char c) {
+        int low = firstChild[node], high = firstChild[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = labels[mid];
+            if (label < c) low = mid + 1;
+            else if (label > c) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private static boolean isWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isBoundary(CharSequence text, int i) {
+        return i == 0 || i == text.length() || !(isWordChar(text.charAt(i - 1)) && isWordChar(text.charAt(i)));
+    }
+
+    /**
+     * @return The end of the longest word starting at start, or -1.
+     */
+    private int longestWord(CharSequence text, int start) {
+        int node = ROOT, end = -1;
+        for (int i = start; i < text.length(); i++) {
+            node = child(node, Character.toLowerCase(text.charAt(i)));
+            if (node < 0) break;
+            if (terminal.get(node) && isBoundary(text, i + 1)) end = i + 1;
+        }
+        return end;
+    }
+
+    @Override
+    public String pattern() {
+        return "matchwords " + name;
+    }
+
+    @Override
+    public boolean isLinear() {
+        return true;
+    }
+
+    @Override
+    public boolean find(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (isBoundary(text, i) && longestWord(text, i) >= 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public MatchCursor matcher(final CharSequence text) {
+        return new MatchCursor() {
+            private int pos = 0, start = -1, end = -1;
+
+            @Override
+            public boolean find() {
+                for (int i = pos; i < text.length(); i++) {
+                    if (!isBoundary(text, i)) continue;
+                    int e = longestWord(text, i);
+                    if (e >= 0) {
+                        start = i;
+                        end = pos = e;
+                        return true;
+                    }
+                }
+                pos = text.length();
+                return false;
+            }
+
+            @Override
+            public int start() {
+                return start;
+            }
+
+            @Override
+            public int end() {
+                return end;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return pattern();
+    }
+}